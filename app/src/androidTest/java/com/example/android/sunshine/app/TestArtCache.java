@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+public class TestArtCache extends AndroidTestCase {
+
+    private static final String ART_PACK = "http://example.com/art/%s.png";
+    private static final String OTHER_ART_PACK = "http://example.com/other/%s.png";
+
+    // 10x10 ARGB_8888, so 400 bytes each.
+    private static Bitmap createArt() {
+        return Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+    }
+
+    public void testConditionsShareTheirBucketsArt() {
+        ArtCache cache = new ArtCache(10000);
+        Bitmap clouds = createArt();
+        cache.put(ART_PACK, 802, 10, 10, clouds);
+
+        // 803 and 804 are clouds too, so they get the same bitmap.
+        assertSame(clouds, cache.get(ART_PACK, 803, 10, 10));
+        assertSame(clouds, cache.get(ART_PACK, 804, 10, 10));
+
+        // But not at another size, from another art pack or for another kind of weather.
+        assertNull(cache.get(ART_PACK, 802, 20, 20));
+        assertNull(cache.get(OTHER_ART_PACK, 802, 10, 10));
+        assertNull(cache.get(ART_PACK, 800, 10, 10));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(0.4f, cache.getHitRate(), 0.001f);
+    }
+
+    public void testContainsIsNotALookup() {
+        ArtCache cache = new ArtCache(10000);
+        cache.put(ART_PACK, 802, 10, 10, createArt());
+
+        assertTrue(cache.contains(ART_PACK, 803, 10, 10));
+        assertFalse(cache.contains(ART_PACK, 800, 10, 10));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    public void testConditionsWithoutArtAreNotCached() {
+        ArtCache cache = new ArtCache(10000);
+        cache.put(ART_PACK, 900, 10, 10, createArt());
+        assertNull(cache.get(ART_PACK, 900, 10, 10));
+        assertNull(cache.get(null, 800, 10, 10));
+    }
+
+    public void testEvictsByBytes() {
+        // Room for two 400 byte bitmaps, but not three.
+        ArtCache cache = new ArtCache(1000);
+        cache.put(ART_PACK, 800, 10, 10, createArt());
+        cache.put(ART_PACK, 801, 10, 10, createArt());
+        cache.put(ART_PACK, 802, 10, 10, createArt());
+
+        assertNull("Expected the oldest art to be evicted", cache.get(ART_PACK, 800, 10, 10));
+        assertNotNull(cache.get(ART_PACK, 801, 10, 10));
+        assertNotNull(cache.get(ART_PACK, 802, 10, 10));
+        assertEquals(1, cache.getEvictionCount());
+    }
+}
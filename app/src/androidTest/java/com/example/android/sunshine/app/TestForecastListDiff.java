@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastListDiff extends AndroidTestCase {
+
+    /*
+        Applies the changes to a list of row IDs, the way the RecyclerView would, and counts
+        the rows that were marked as changed.
+     */
+    static class ReplayingCallback implements ForecastListDiff.Callback {
+        final List<Long> mIds;
+        final ForecastListDiff.Rows mTo;
+        int mOperations;
+        int mChanged;
+
+        ReplayingCallback(ForecastListDiff.Rows from, ForecastListDiff.Rows to) {
+            mIds = new ArrayList<Long>();
+            for (long id : from.mIds) {
+                mIds.add(id);
+            }
+            mTo = to;
+        }
+
+        @Override
+        public void onInserted(int position) {
+            // An inserted row can only be the one the new rows have in that spot.
+            mIds.add(position, mTo.mIds[position]);
+            mOperations++;
+        }
+
+        @Override
+        public void onRemoved(int position) {
+            mIds.remove(position);
+            mOperations++;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mIds.add(toPosition, mIds.remove(fromPosition));
+            mOperations++;
+        }
+
+        @Override
+        public void onChanged(int position) {
+            mChanged++;
+        }
+    }
+
+    private static ForecastListDiff.Rows rows(long[] ids, double[] highs) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id", "max" });
+        for (int i = 0; i < ids.length; i++) {
+            cursor.addRow(new Object[] { ids[i], highs[i] });
+        }
+        ForecastListDiff.Rows rows = ForecastListDiff.snapshot(cursor, 0);
+        cursor.close();
+        return rows;
+    }
+
+    private static ReplayingCallback diff(ForecastListDiff.Rows from, ForecastListDiff.Rows to) {
+        ReplayingCallback callback = new ReplayingCallback(from, to);
+        ForecastListDiff.dispatch(from, to, callback);
+
+        assertEquals("Replaying the diff didn't give the new rows", to.size(), callback.mIds.size());
+        for (int i = 0; i < to.size(); i++) {
+            assertEquals("Wrong row at position " + i, to.mIds[i], (long) callback.mIds.get(i));
+        }
+        return callback;
+    }
+
+    public void testSameRows() {
+        ForecastListDiff.Rows rows = rows(new long[] { 1, 2, 3 }, new double[] { 10, 11, 12 });
+        ReplayingCallback callback = diff(rows, rows(new long[] { 1, 2, 3 }, new double[] { 10, 11, 12 }));
+        assertEquals(0, callback.mOperations);
+        assertEquals(0, callback.mChanged);
+    }
+
+    /*
+        What a sync on a new day looks like: yesterday is gone, there's a new last day, and a
+        couple of days in between have new numbers.
+     */
+    public void testNewDay() {
+        ForecastListDiff.Rows from = rows(new long[] { 1, 2, 3, 4 }, new double[] { 10, 11, 12, 13 });
+        ForecastListDiff.Rows to = rows(new long[] { 2, 3, 4, 5 }, new double[] { 11, 15, 16, 14 });
+        ReplayingCallback callback = diff(from, to);
+        assertEquals("Expected one removal and one insert", 2, callback.mOperations);
+        assertEquals("Expected two changed rows", 2, callback.mChanged);
+    }
+
+    public void testShuffledRows() {
+        diff(rows(new long[] { 1, 2, 3, 4, 5 }, new double[] { 1, 2, 3, 4, 5 }),
+                rows(new long[] { 5, 3, 6, 1 }, new double[] { 5, 3, 6, 1 }));
+        diff(ForecastListDiff.Rows.EMPTY, rows(new long[] { 7, 8 }, new double[] { 7, 8 }));
+        diff(rows(new long[] { 7, 8 }, new double[] { 7, 8 }), ForecastListDiff.Rows.EMPTY);
+    }
+
+    public void testRemapPosition() {
+        // Two rows inserted at 3.
+        assertEquals(2, ItemChoiceManager.remapPosition(2, ItemChoiceManager.INSERTED, 3, 3, 2));
+        assertEquals(5, ItemChoiceManager.remapPosition(3, ItemChoiceManager.INSERTED, 3, 3, 2));
+
+        // The top row removed.
+        assertEquals(RecyclerView.NO_POSITION, ItemChoiceManager.remapPosition(0, ItemChoiceManager.REMOVED, 0, 0, 1));
+        assertEquals(4, ItemChoiceManager.remapPosition(5, ItemChoiceManager.REMOVED, 0, 0, 1));
+
+        // A row moved down from 1 to 4, and back up again.
+        assertEquals(4, ItemChoiceManager.remapPosition(1, ItemChoiceManager.MOVED, 1, 4, 1));
+        assertEquals(2, ItemChoiceManager.remapPosition(3, ItemChoiceManager.MOVED, 1, 4, 1));
+        assertEquals(5, ItemChoiceManager.remapPosition(5, ItemChoiceManager.MOVED, 1, 4, 1));
+        assertEquals(1, ItemChoiceManager.remapPosition(4, ItemChoiceManager.MOVED, 4, 1, 1));
+        assertEquals(4, ItemChoiceManager.remapPosition(3, ItemChoiceManager.MOVED, 4, 1, 1));
+        assertEquals(0, ItemChoiceManager.remapPosition(0, ItemChoiceManager.MOVED, 4, 1, 1));
+    }
+}
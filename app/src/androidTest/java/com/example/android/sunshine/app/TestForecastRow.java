@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+public class TestForecastRow extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastRow.class.getSimpleName();
+
+    private static final int BENCHMARK_ITERATIONS = 100;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    /*
+        A forecast list cursor for the next two weeks, in the columns of FORECAST_COLUMNS.
+     */
+    static Cursor createForecastCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+                "coord_lat", "coord_long" });
+        long now = System.currentTimeMillis();
+        int[] weatherIds = { 200, 301, 500, 511, 520, 600, 701, 761, 781, 800, 801, 803, 900, 951 };
+        for (int i = 0; i < weatherIds.length; i++) {
+            cursor.addRow(new Object[] { 1000 + i, now + i * DAY_IN_MILLIS, "Weather", 20.5 + i,
+                    10.25 - i, "99705", weatherIds[i], 64.7488, -147.353 });
+        }
+        return cursor;
+    }
+
+    public void testRowMatchesUtility() {
+        Cursor cursor = createForecastCursor();
+        ForecastRow[] rows = ForecastRow.fromCursor(mContext, cursor);
+        assertEquals(cursor.getCount(), rows.length);
+
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ForecastRow row = rows[i];
+            long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+            assertEquals(cursor.getLong(ForecastFragment.COL_WEATHER_ID), row.mId);
+            assertEquals(date, row.mDate);
+            assertEquals(Utility.getIconResourceForWeatherCondition(weatherId), row.mIconResource);
+            assertEquals(Utility.getArtResourceForWeatherCondition(weatherId), row.mArtResource);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, false), row.mDayString);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, true), row.mLongDayString);
+            assertEquals(Utility.getStringForWeatherCondition(mContext, weatherId), row.mDescription);
+            assertEquals(Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP)), row.mHigh);
+            assertEquals(Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP)), row.mLow);
+        }
+        cursor.close();
+    }
+
+    /*
+        Compares what binding a row used to cost, which was all the formatting ForecastRow now
+        does up front, with what binding a prebuilt row costs.  The numbers are only logged.
+     */
+    public void testBindTiming() {
+        // Glide will only load into views on the main thread, so bind with the local graphics.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String artPackKey = mContext.getString(R.string.pref_art_pack_key);
+        String artPack = prefs.getString(artPackKey, null);
+        prefs.edit().putString(artPackKey, mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+
+        Cursor cursor = createForecastCursor();
+        try {
+            Context context = new ContextThemeWrapper(mContext, R.style.AppTheme);
+            RecyclerView recyclerView = new RecyclerView(context);
+            ForecastAdapter adapter = new ForecastAdapter(context, null, new View(context),
+                    AbsListView.CHOICE_MODE_NONE);
+            adapter.swapCursor(cursor);
+            int count = adapter.getItemCount();
+            ForecastAdapter.ForecastAdapterViewHolder today =
+                    adapter.onCreateViewHolder(recyclerView, adapter.getItemViewType(0));
+            ForecastAdapter.ForecastAdapterViewHolder future =
+                    adapter.onCreateViewHolder(recyclerView, adapter.getItemViewType(1));
+
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                ForecastRow.fromCursor(mContext, cursor);
+            }
+            long formatNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                for (int position = 0; position < count; position++) {
+                    adapter.onBindViewHolder(0 == position ? today : future, position);
+                }
+            }
+            long bindNanos = System.nanoTime() - start;
+
+            long rows = (long) BENCHMARK_ITERATIONS * count;
+            Log.d(LOG_TAG, "Per row: formatting " + formatNanos / rows / 1000 +
+                    "us, binding a prebuilt row " + bindNanos / rows / 1000 + "us");
+        } finally {
+            cursor.close();
+            if (null == artPack) {
+                prefs.edit().remove(artPackKey).commit();
+            } else {
+                prefs.edit().putString(artPackKey, artPack).commit();
+            }
+        }
+    }
+}
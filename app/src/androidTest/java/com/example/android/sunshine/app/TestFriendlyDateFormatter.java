@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import java.text.SimpleDateFormat;
+
+public class TestFriendlyDateFormatter extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private FriendlyDateFormatter mFormatter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFormatter = FriendlyDateFormatter.getInstance(mContext);
+        mFormatter.invalidate();
+    }
+
+    public void testFriendlyDays() {
+        long now = System.currentTimeMillis();
+        String today = mContext.getString(R.string.today);
+        String monthDay = new SimpleDateFormat("MMMM dd").format(now);
+
+        assertEquals(today, mFormatter.getDayName(now));
+        assertEquals(mContext.getString(R.string.tomorrow),
+                mFormatter.getDayName(now + DAY_IN_MILLIS));
+        assertEquals(today, mFormatter.getFriendlyDayString(now, false));
+        assertEquals(mContext.getString(R.string.format_full_friendly_date, today, monthDay),
+                mFormatter.getFriendlyDayString(now, true));
+
+        long nextWeek = now + 3 * DAY_IN_MILLIS;
+        assertEquals(new SimpleDateFormat("EEEE").format(nextWeek),
+                mFormatter.getFriendlyDayString(nextWeek, true));
+
+        long later = now + 10 * DAY_IN_MILLIS;
+        assertEquals(new SimpleDateFormat("EEE MMM dd").format(later),
+                mFormatter.getFriendlyDayString(later, false));
+        assertEquals(mContext.getString(R.string.format_full_friendly_date,
+                        new SimpleDateFormat("EEEE").format(later),
+                        new SimpleDateFormat("MMMM dd").format(later)),
+                mFormatter.getFullFriendlyDayString(later));
+    }
+
+    public void testRemembersDays() {
+        long later = System.currentTimeMillis() + 10 * DAY_IN_MILLIS;
+        String first = mFormatter.getFullFriendlyDayString(later);
+        assertSame("Expected the same string for the same day",
+                first, mFormatter.getFullFriendlyDayString(later));
+
+        mFormatter.invalidate();
+        String second = mFormatter.getFullFriendlyDayString(later);
+        assertNotSame("Expected a new string after invalidate", first, second);
+        assertEquals(first, second);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mUnits = mPrefs.getString(mUnitsKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (null == mUnits) {
+            mPrefs.edit().remove(mUnitsKey).commit();
+        } else {
+            mPrefs.edit().putString(mUnitsKey, mUnits).commit();
+        }
+        SettingsSnapshot.invalidate();
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsPreferences() {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_metric)).commit();
+        SettingsSnapshot.invalidate();
+
+        SettingsSnapshot snapshot = SettingsSnapshot.get(mContext);
+        assertTrue(snapshot.isMetric());
+        assertSame("Expected the snapshot to be reused", snapshot, SettingsSnapshot.get(mContext));
+        assertEquals(mContext.getString(R.string.format_temperature, 20.0),
+                Utility.formatTemperature(mContext, 20));
+
+        // Our listener hears about the change on the main thread, so wait for it.
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial)).commit();
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return !SettingsSnapshot.get(mContext).isMetric();
+            }
+        }.run();
+        assertEquals(mContext.getString(R.string.format_temperature, 68.0),
+                Utility.formatTemperature(mContext, 20));
+    }
+
+    /*
+        What the app writes through the setters should read back straight away.
+     */
+    public void testSettersInvalidate() {
+        String statusKey = mContext.getString(R.string.pref_location_status_key);
+        int status = mPrefs.getInt(statusKey, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        try {
+            SettingsSnapshot.setLocationStatus(mContext,
+                    SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                    SettingsSnapshot.get(mContext).getLocationStatus());
+            SettingsSnapshot.setLocationStatus(mContext,
+                    SunshineSyncAdapter.LOCATION_STATUS_INVALID);
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                    SettingsSnapshot.get(mContext).getLocationStatus());
+        } finally {
+            mPrefs.edit().putInt(statusKey, status).commit();
+            SettingsSnapshot.invalidate();
+        }
+    }
+}
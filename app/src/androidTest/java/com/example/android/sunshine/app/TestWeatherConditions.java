@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class TestWeatherConditions extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherConditions.class.getSimpleName();
+
+    private static final int BENCHMARK_ITERATIONS = 100;
+
+    /*
+        The checks Utility used before the condition tables, kept here to compare against.
+     */
+    static int legacyIconResource(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    static int legacyArtResource(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return -1;
+    }
+
+    static String legacyImageUrl(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId == 511) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+        } else if (weatherId == 800) {
+            return "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
+        } else if (weatherId == 801) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
+        }
+        return null;
+    }
+
+    public void testTablesMatchOldChecks() {
+        for (int id = -1; id <= WeatherConditions.MAX_CONDITION_ID; id++) {
+            assertEquals("Wrong icon for " + id, legacyIconResource(id),
+                    WeatherConditions.getIconResource(id));
+            assertEquals("Wrong art for " + id, legacyArtResource(id),
+                    WeatherConditions.getArtResource(id));
+            assertEquals("Wrong image for " + id, legacyImageUrl(id),
+                    WeatherConditions.getImageUrl(id));
+        }
+
+        // The quirks we keep.
+        assertEquals(R.drawable.art_fog, WeatherConditions.getArtResource(761));
+        assertEquals(R.drawable.art_storm, WeatherConditions.getArtResource(781));
+        assertEquals("http://example.com/storm.png",
+                WeatherConditions.getArtUrl("http://example.com/%s.png", 781));
+        assertFalse(WeatherConditions.getImageUrl(781).equals(WeatherConditions.getImageUrl(200)));
+
+        assertEquals("http://example.com/clouds.png",
+                WeatherConditions.getArtUrl("http://example.com/%s.png", 803));
+        assertNull(WeatherConditions.getArtUrl("http://example.com/%s.png", 900));
+    }
+
+    public void testDescriptions() {
+        assertEquals(mContext.getString(R.string.condition_2xx),
+                Utility.getStringForWeatherCondition(mContext, 211));
+        assertEquals(mContext.getString(R.string.condition_531),
+                Utility.getStringForWeatherCondition(mContext, 531));
+        assertEquals(mContext.getString(R.string.condition_962),
+                Utility.getStringForWeatherCondition(mContext, 962));
+        assertEquals(mContext.getString(R.string.condition_unknown, 530),
+                Utility.getStringForWeatherCondition(mContext, 530));
+        assertEquals(mContext.getString(R.string.condition_unknown, 1200),
+                Utility.getStringForWeatherCondition(mContext, 1200));
+    }
+
+    /*
+        Looks up every condition id with the old checks and with the tables.  The numbers are
+        only logged.
+     */
+    public void testLookupTiming() {
+        int sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (int id = 0; id < WeatherConditions.MAX_CONDITION_ID; id++) {
+                sum += legacyIconResource(id) + legacyArtResource(id);
+            }
+        }
+        long chainNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (int id = 0; id < WeatherConditions.MAX_CONDITION_ID; id++) {
+                sum -= WeatherConditions.getIconResource(id) + WeatherConditions.getArtResource(id);
+            }
+        }
+        long tableNanos = System.nanoTime() - start;
+
+        // Using the results keeps the loops from being optimized away.
+        assertEquals(0, sum);
+
+        long lookups = 2L * BENCHMARK_ITERATIONS * WeatherConditions.MAX_CONDITION_ID;
+        Log.d(LOG_TAG, "Per lookup: old checks " + chainNanos / lookups + "ns, tables " +
+                tableNanos / lookups + "ns");
+    }
+}
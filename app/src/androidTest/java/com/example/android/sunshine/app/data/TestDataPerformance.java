@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeeklyEntry;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.Arrays;
+
+/*
+    Times the data layer's hot paths against a database the size a heavy user ends up with,
+    and fails if any of them blows its budget.  Each operation is run a few times to warm up,
+    then timed over a number of runs, and the median is what's checked, so one slow run from
+    a garbage collection or a busy device doesn't fail the build.
+
+    The budgets are well above what these take on a mid-range phone.  They're there to catch
+    the kind of regression that changes the shape of the work, like a query that stops using
+    the location/date index or a bulkInsert that stops sharing a transaction, not to measure
+    small changes.  Every median is logged too, to compare before and after a change.
+ */
+public class TestDataPerformance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDataPerformance.class.getSimpleName();
+
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 15;
+
+    // Saved locations, each with a two week forecast.
+    private static final int LOCATIONS = 50;
+    private static final int DAYS = 14;
+
+    // Five days of 3 hour slots, as OpenWeatherMap sends them.
+    private static final int SLOTS = 40;
+
+    // Budgets for the median run, in microseconds.
+    private static final long BUDGET_QUERY_WEATHER_MICROS = 50000;  // Every row, sorted.
+    private static final long BUDGET_QUERY_LOCATION_MICROS = 10000;  // One location's forecast.
+    private static final long BUDGET_QUERY_DAY_MICROS = 10000;
+    private static final long BUDGET_LOCATION_LOOKUP_MICROS = 5000;
+    private static final long BUDGET_BULK_INSERT_ROW_MICROS = 1000;  // Per row.
+    private static final long BUDGET_NORMALIZE_DATE_NANOS = 20000;  // Per call.
+    private static final long BUDGET_STORE_SLOT_MICROS = 200;  // Per slot.
+    private static final long BUDGET_QUERY_HOURLY_MICROS = 10000;  // One location's slots.
+    // How long a compaction chunk can hold the write lock, and so keep a loader waiting.
+    private static final long BUDGET_COMPACT_CHUNK_MICROS = 20000;
+
+    private ContentResolver mResolver;
+    private long mFirstLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = mContext.getContentResolver();
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(HourlyEntry.CONTENT_URI, null, null);
+        mResolver.delete(WeeklyEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+
+        for (int i = 0; i < LOCATIONS; i++) {
+            long locationId = insertLocation(i);
+            if (i == 0) mFirstLocationId = locationId;
+            mResolver.bulkInsert(WeatherEntry.CONTENT_URI,
+                    TestProvider.createBulkInsertWeatherValues(locationId, DAYS));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(HourlyEntry.CONTENT_URI, null, null);
+        mResolver.delete(WeeklyEntry.CONTENT_URI, null, null);
+        mResolver.delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private static String locationSetting(int i) {
+        return 0 == i ? TestUtilities.TEST_LOCATION : "location " + i;
+    }
+
+    private long insertLocation(int i) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+        values.put(LocationEntry.COLUMN_COORD_LAT, 64.7488 + i);
+        Uri uri = mResolver.insert(LocationEntry.CONTENT_URI, values);
+        return Long.parseLong(uri.getLastPathSegment());
+    }
+
+    /*
+        One timed operation.  prepare runs before every run, outside the timing.
+     */
+    private abstract static class Benchmark {
+        void prepare() { }
+
+        abstract void run();
+    }
+
+    /**
+     * @return the median time of the timed runs, in nanoseconds.
+     */
+    private static long measure(String name, Benchmark benchmark) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            benchmark.prepare();
+            benchmark.run();
+        }
+        long[] nanos = new long[TIMED_RUNS];
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            benchmark.prepare();
+            long start = System.nanoTime();
+            benchmark.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        long median = nanos[TIMED_RUNS / 2];
+        Log.d(LOG_TAG, name + ": median " + median / 1000 + "us, min " + nanos[0] / 1000 +
+                "us, max " + nanos[TIMED_RUNS - 1] / 1000 + "us");
+        return median;
+    }
+
+    private static void assertWithinBudget(String name, long budgetMicros, long nanos) {
+        assertTrue(name + " took " + nanos / 1000 + "us, over its budget of " + budgetMicros +
+                "us", nanos / 1000 <= budgetMicros);
+    }
+
+    private void queryAndCount(Uri uri, String selection, String[] selectionArgs,
+                               String sortOrder) {
+        Cursor cursor = mResolver.query(uri, null, selection, selectionArgs, sortOrder);
+        assertTrue("Query for " + uri + " came back empty", cursor.getCount() > 0);
+        cursor.close();
+    }
+
+    /*
+        Every kind of URI the provider answers queries for.  The forecast queries are cleared
+        from the query cache before each run, so it's the database being timed.
+     */
+    public void testQueries() {
+        final ForecastQueryCache cache = WeatherProvider.getQueryCache();
+
+        long nanos = measure("query weather", new Benchmark() {
+            @Override
+            void run() {
+                queryAndCount(WeatherEntry.CONTENT_URI, null, null,
+                        WeatherEntry.COLUMN_DATE + " ASC");
+            }
+        });
+        assertWithinBudget("query weather", BUDGET_QUERY_WEATHER_MICROS, nanos);
+
+        nanos = measure("query weather by location", new Benchmark() {
+            @Override
+            void prepare() {
+                cache.invalidate();
+            }
+
+            @Override
+            void run() {
+                queryAndCount(WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE), null, null,
+                        WeatherEntry.COLUMN_DATE + " ASC");
+            }
+        });
+        assertWithinBudget("query weather by location", BUDGET_QUERY_LOCATION_MICROS, nanos);
+
+        nanos = measure("query weather by location and day", new Benchmark() {
+            @Override
+            void prepare() {
+                cache.invalidate();
+            }
+
+            @Override
+            void run() {
+                queryAndCount(WeatherEntry.buildWeatherLocationWithDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE), null, null, null);
+            }
+        });
+        assertWithinBudget("query weather by location and day", BUDGET_QUERY_DAY_MICROS, nanos);
+
+        // How the sync looks up a location before storing its forecast.
+        nanos = measure("location lookup", new Benchmark() {
+            @Override
+            void run() {
+                Cursor cursor = mResolver.query(LocationEntry.CONTENT_URI,
+                        new String[]{LocationEntry._ID},
+                        LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{locationSetting(LOCATIONS - 1)},
+                        null);
+                assertTrue(cursor.moveToFirst());
+                cursor.close();
+            }
+        });
+        assertWithinBudget("location lookup", BUDGET_LOCATION_LOOKUP_MICROS, nanos);
+    }
+
+    public void testBulkInsert() {
+        for (int records : new int[] {DAYS, 100, 1000}) {
+            final ContentValues[] values =
+                    TestProvider.createBulkInsertWeatherValues(mFirstLocationId, records);
+            final Uri upsertUri = WeatherEntry.buildWeatherUpsertUri();
+            String name = "bulkInsert " + records + " rows";
+            long nanos = measure(name, new Benchmark() {
+                @Override
+                void run() {
+                    assertEquals(values.length, mResolver.bulkInsert(upsertUri, values));
+                }
+            });
+            assertWithinBudget(name, BUDGET_BULK_INSERT_ROW_MICROS * records, nanos);
+        }
+    }
+
+    /*
+        One chunk of history compaction, as the sync runs it, with every forecast in the
+        database old enough to compact.  The chunk is the longest the sync ever holds the
+        write lock for in one go while compacting.
+     */
+    public void testCompactHistoryChunk() {
+        final ContentValues[][] days = new ContentValues[LOCATIONS][];
+        Cursor cursor = mResolver.query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            days[i] = TestProvider.createBulkInsertWeatherValues(cursor.getLong(0), DAYS);
+        }
+        cursor.close();
+
+        final int chunk = SunshineSyncAdapter.COMPACT_CHUNK_DAYS;
+        // The day after the last day of every forecast.
+        final long before = TestUtilities.TEST_DATE + DAYS * 24 * 60 * 60 * 1000L;
+        final WeatherProvider provider = WeatherProvider.getLocalInstance();
+        assertNotNull("Error: the weather provider wasn't created", provider);
+        long nanos = measure("compact history chunk", new Benchmark() {
+            @Override
+            void prepare() {
+                // Put back what the last run compacted.
+                for (ContentValues[] values : days) {
+                    mResolver.bulkInsert(WeatherEntry.CONTENT_URI, values);
+                }
+            }
+
+            @Override
+            void run() {
+                assertEquals(chunk, provider.compactHistory(before, chunk));
+            }
+        });
+        assertWithinBudget("compact history chunk", BUDGET_COMPACT_CHUNK_MICROS, nanos);
+    }
+
+    private static ForecastBatch createHourlyForecast(int locations) {
+        ForecastBatch forecast = new ForecastBatch(0, locations * SLOTS);
+        for (int i = 0; i < locations; i++) {
+            int location = forecast.addLocation(locationSetting(i));
+            forecast.setCity(location, "North Pole", 64.7488 + i, -147.353);
+            for (int slot = 0; slot < SLOTS; slot++) {
+                forecast.addSlot(location,
+                        TestUtilities.TEST_DATE + slot * HourlyEntry.SLOT_MILLIS,
+                        800 + slot % 4, -20.5 + slot, 70, 1020.5, 4.5, slot * 9);
+            }
+        }
+        return forecast;
+    }
+
+    /*
+        Storing 3 hour forecasts for a few and for a lot of locations, then reading one back.
+        The cost of a slot and of a location's query should stay flat as locations are added,
+        which is what the (location_id, slot) index is for.
+     */
+    public void testHourly() {
+        final WeatherProvider provider = WeatherProvider.getLocalInstance();
+        assertNotNull("Error: the weather provider wasn't created", provider);
+        for (final int locations : new int[] {10, 100}) {
+            String name = "store " + locations + " locations x " + SLOTS + " slots";
+            long nanos = measure(name, new Benchmark() {
+                ForecastBatch mForecast;
+
+                @Override
+                void prepare() {
+                    mForecast = createHourlyForecast(locations);
+                }
+
+                @Override
+                void run() {
+                    provider.storeForecasts(mForecast);
+                    assertEquals(locations * SLOTS, mForecast.getRowsWritten());
+                }
+            });
+            Log.d(LOG_TAG, name + ": " + nanos / (locations * SLOTS) + "ns a slot");
+            assertWithinBudget(name, BUDGET_STORE_SLOT_MICROS * locations * SLOTS, nanos);
+
+            name = "query hourly by location, " + locations + " locations";
+            final Uri uri = HourlyEntry.buildHourlyLocationWithStartTime(
+                    locationSetting(locations - 1),
+                    TestUtilities.TEST_DATE + SLOTS / 2 * HourlyEntry.SLOT_MILLIS);
+            nanos = measure(name, new Benchmark() {
+                @Override
+                void run() {
+                    queryAndCount(uri, null, null, HourlyEntry.COLUMN_SLOT + " ASC");
+                }
+            });
+            assertWithinBudget(name, BUDGET_QUERY_HOURLY_MICROS, nanos);
+        }
+    }
+
+    public void testNormalizeDate() {
+        final int calls = 10000;
+        final Time time = new Time();
+        long nanos = measure("normalizeDate x" + calls, new Benchmark() {
+            @Override
+            void run() {
+                long date = TestUtilities.TEST_DATE;
+                for (int i = 0; i < calls; i++) {
+                    WeatherContract.normalizeDate(date + i * 3600000L, time);
+                }
+            }
+        });
+        long perCall = nanos / calls;
+        Log.d(LOG_TAG, "normalizeDate: " + perCall + "ns a call");
+        assertTrue("normalizeDate took " + perCall + "ns a call, over its budget of " +
+                BUDGET_NORMALIZE_DATE_NANOS + "ns", perCall <= BUDGET_NORMALIZE_DATE_NANOS);
+    }
+}
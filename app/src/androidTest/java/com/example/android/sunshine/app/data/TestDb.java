@@ -15,12 +15,17 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.test.AndroidTestCase;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
 public class TestDb extends AndroidTestCase {
 
@@ -55,6 +60,9 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.SyncTelemetryEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.WeeklyEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -234,4 +242,179 @@ public class TestDb extends AndroidTestCase {
         db.close();
         return locationRowId;
     }
+
+    public void testWriteAheadLogging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+
+        SQLiteDatabase db = new WeatherDbHelper(this.mContext).getWritableDatabase();
+        Cursor c = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(c.moveToFirst());
+        assertEquals("Error: readers will wait for the sync adapter's transactions",
+                "wal", c.getString(0).toLowerCase());
+        c.close();
+        db.close();
+    }
+
+    // The projection ForecastFragment uses for the forecast list.
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    /*
+        Everything the forecast list, the widgets and Muzei show is read through a location
+        setting.  Make sure SQLite finds those rows through our indexes, rather than scanning
+        every day of every location we have ever stored.
+     */
+    public void testLocationQueryPlans() {
+        // Older versions of SQLite describe their query plans differently.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+
+        SQLiteDatabase db = new WeatherDbHelper(this.mContext).getWritableDatabase();
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        String startDate = Long.toString(TestUtilities.TEST_DATE);
+
+        // weather/*?date=, the forecast list
+        assertIndexedQuery(db, FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{TestUtilities.TEST_LOCATION, startDate}, sortOrder, true);
+
+        // weather/*
+        assertIndexedQuery(db, FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingSelection,
+                new String[]{TestUtilities.TEST_LOCATION}, sortOrder, true);
+
+        // weather/*/#, the detail view.  It reads columns the index doesn't carry, and either
+        // index will do for a single day, so all we ask is that nothing is scanned.
+        assertIndexedQuery(db, null,
+                WeatherProvider.sLocationSettingAndDaySelection,
+                new String[]{TestUtilities.TEST_LOCATION, startDate}, null, false);
+
+        db.close();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void assertIndexedQuery(SQLiteDatabase db, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder,
+                                    boolean requireCoveringIndex) {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                projection, selection, null, null, sortOrder, null);
+        List<String> plan = explainQueryPlan(db, sql, selectionArgs);
+
+        boolean usedCoveringIndex = false;
+        for (String detail : plan) {
+            assertFalse("Error: full table scan in " + plan + " for " + sql,
+                    detail.startsWith("SCAN"));
+            assertFalse("Error: sorting in a temporary table in " + plan + " for " + sql,
+                    detail.contains("TEMP B-TREE"));
+            if (detail.contains("COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE)) {
+                usedCoveringIndex = true;
+            }
+        }
+        if (requireCoveringIndex) {
+            assertTrue("Error: " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE +
+                    " not used as a covering index in " + plan + " for " + sql, usedCoveringIndex);
+        }
+    }
+
+    /*
+        Returns the detail column of each step of SQLite's plan for the query, such as
+        "SEARCH TABLE location USING INDEX sqlite_autoindex_location_1 (location_setting=?)".
+     */
+    static List<String> explainQueryPlan(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        int detailIndex = c.getColumnIndex("detail");
+        List<String> plan = new ArrayList<String>();
+        while (c.moveToNext()) {
+            plan.add(c.getString(detailIndex));
+        }
+        c.close();
+        return plan;
+    }
+
+    /*
+        Upgrading from any version we can migrate must end up with exactly the schema a new
+        install gets, without losing the forecasts already stored.
+     */
+    public void testUpgradeKeepsForecasts() {
+        SQLiteDatabase db = new WeatherDbHelper(this.mContext).getWritableDatabase();
+        final HashSet<String> newSchema = readSchema(db);
+        db.close();
+
+        for (int version = WeatherDbHelper.BASE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            // Build the database as that version of the app would have left it.
+            deleteTheDatabase();
+            db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                    Context.MODE_PRIVATE, null);
+            WeatherDbHelper.createBaseSchema(db);
+            WeatherDbHelper.migrate(db, WeatherDbHelper.BASE_VERSION, version);
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                    locationValues);
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+            db.setVersion(version);
+            db.close();
+
+            db = new WeatherDbHelper(this.mContext).getWritableDatabase();
+            assertEquals("Error: upgrade from version " + version + " left the wrong version",
+                    WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: upgrade from version " + version + " left a different schema",
+                    newSchema, readSchema(db));
+
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: upgrade from version " + version +
+                    " lost the location", cursor, locationValues);
+            cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: upgrade from version " + version +
+                    " lost the weather", cursor, weatherValues);
+            db.close();
+        }
+    }
+
+    /*
+        Databases from before BASE_VERSION can't be migrated, so they start over empty.
+     */
+    public void testUpgradeFromUnmigratableVersion() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        WeatherDbHelper.createBaseSchema(db);
+        db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        db.setVersion(WeatherDbHelper.BASE_VERSION - 1);
+        db.close();
+
+        db = new WeatherDbHelper(this.mContext).getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals("Error: old locations survived the rebuild", 0, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+
+    /*
+        The definition of every table and index we created, ignoring the ones SQLite and
+        Android make for themselves.
+     */
+    private static HashSet<String> readSchema(SQLiteDatabase db) {
+        Cursor c = db.rawQuery("SELECT sql FROM sqlite_master WHERE sql NOT NULL AND " +
+                "name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        HashSet<String> schema = new HashSet<String>();
+        while (c.moveToNext()) {
+            schema.add(c.getString(0));
+        }
+        c.close();
+        return schema;
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+public class TestForecastBatch extends AndroidTestCase {
+
+    public void testGrowsPastItsCapacity() {
+        ForecastBatch batch = new ForecastBatch(1);
+        int location = batch.addLocation(TestUtilities.TEST_LOCATION);
+        for (int day = 0; day < 40; day++) {
+            assertEquals(day, batch.addDay(location, TestUtilities.TEST_DATE + day, 500 + day,
+                    "Rain", day, day + 10, day, 1000 + day, day / 2.0, day * 3));
+        }
+        assertEquals(40, batch.getDayCount());
+        for (int day = 0; day < 40; day++) {
+            assertEquals(TestUtilities.TEST_DATE + day, batch.getDate(day));
+            assertEquals(500 + day, batch.getWeatherId(day));
+            assertEquals("Rain", batch.getDescription(day));
+            assertEquals((double) day, batch.getMinTemp(day));
+            assertEquals(day + 10.0, batch.getMaxTemp(day));
+            assertEquals(day, batch.getHumidity(day));
+            assertEquals(1000.0 + day, batch.getPressure(day));
+            assertEquals(day / 2.0, batch.getWindSpeed(day));
+            assertEquals(day * 3.0, batch.getDegrees(day));
+        }
+    }
+
+    public void testAddAll() {
+        ForecastBatch first = new ForecastBatch();
+        int northPole = first.addLocation(TestUtilities.TEST_LOCATION);
+        first.setCity(northPole, "North Pole", 64.7488, -147.353);
+        first.addDay(northPole, TestUtilities.TEST_DATE, 600, "Snow", 0, 0, 0, 0, 0, 0);
+
+        ForecastBatch second = new ForecastBatch();
+        int mountainView = second.addLocation("94043");
+        second.setCity(mountainView, "Mountain View", 37.4056, -122.0775);
+        second.addDay(mountainView, TestUtilities.TEST_DATE, 800, "Clear", 0, 0, 0, 0, 0, 0);
+        second.addDay(mountainView, TestUtilities.TEST_DATE + 1, 601, new String("Snow"),
+                0, 0, 0, 0, 0, 0);
+
+        first.addAll(second);
+        assertEquals(2, first.getLocationCount());
+        assertEquals("94043", first.getLocationSetting(1));
+        assertEquals("Mountain View", first.getCityName(1));
+        assertEquals(37.4056, first.getLatitude(1));
+        assertEquals(3, first.getDayCount());
+        assertEquals(0, first.getDayLocation(0));
+        assertEquals(1, first.getDayLocation(1));
+        assertEquals(1, first.getDayLocation(2));
+        assertEquals("Clear", first.getDescription(1));
+        assertEquals("Snow", first.getDescription(2));
+        assertEquals(601, first.getWeatherId(2));
+
+        // Both batches' "Snow" should be the one string now.
+        assertSame(first.getDescription(0), first.getDescription(2));
+    }
+
+    public void testUnknownLocation() {
+        ForecastBatch batch = new ForecastBatch();
+        try {
+            batch.addDay(0, TestUtilities.TEST_DATE, 800, "Clear", 0, 0, 0, 0, 0, 0);
+            fail("Error: a day needs a location added first");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -16,19 +16,33 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTelemetryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeeklyEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -56,6 +70,16 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                WeeklyEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -160,6 +184,15 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        type = mContext.getContentResolver().getType(SyncTelemetryEntry.CONTENT_URI);
+        assertEquals("Error: the SyncTelemetryEntry CONTENT_URI should return SyncTelemetryEntry.CONTENT_TYPE",
+                SyncTelemetryEntry.CONTENT_TYPE, type);
+
+        type = mContext.getContentResolver().getType(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION));
+        assertEquals("Error: the HourlyEntry CONTENT_URI with location should return HourlyEntry.CONTENT_TYPE",
+                HourlyEntry.CONTENT_TYPE, type);
     }
 
 
@@ -424,11 +457,15 @@ public class TestProvider extends AndroidTestCase {
 
     static private final int BULK_INSERT_RECORDS_TO_INSERT = 10;
     static ContentValues[] createBulkInsertWeatherValues(long locationRowId) {
+        return createBulkInsertWeatherValues(locationRowId, BULK_INSERT_RECORDS_TO_INSERT);
+    }
+
+    static ContentValues[] createBulkInsertWeatherValues(long locationRowId, int records) {
         long currentTestDate = TestUtilities.TEST_DATE;
         long millisecondsInADay = 1000*60*60*24;
-        ContentValues[] returnContentValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
+        ContentValues[] returnContentValues = new ContentValues[records];
 
-        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, currentTestDate+= millisecondsInADay ) {
+        for ( int i = 0; i < records; i++, currentTestDate+= millisecondsInADay ) {
             ContentValues weatherValues = new ContentValues();
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, currentTestDate);
@@ -512,4 +549,636 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        An upsert should update the days we already have in place, keeping their _IDs, rather
+        than deleting and re-inserting them.
+     */
+    public void testBulkUpsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+        long[] insertedIds = queryWeatherIds();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertedIds.length);
+
+        // Same days, new weather.
+        for (ContentValues weatherValues : bulkInsertContentValues) {
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP,
+                    weatherValues.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP) + 1);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        int upsertCount = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherUpsertUri(), bulkInsertContentValues);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, upsertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testBulkUpsert.  Error validating WeatherEntry " + i,
+                    cursor, bulkInsertContentValues[i]);
+            // Before Honeycomb the upsert falls back to the table's ON CONFLICT REPLACE.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                assertEquals("Error: upsert replaced the row for day " + i, insertedIds[i],
+                        cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+            }
+        }
+        cursor.close();
+    }
+
+    /*
+        An upsert with only some of the columns should change just those, and leave the rest
+        of the day as it was.
+     */
+    public void testPartialUpsert() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        Uri weatherUri = mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                weatherValues);
+        long weatherRowId = ContentUris.parseId(weatherUri);
+
+        ContentValues partialValues = new ContentValues();
+        partialValues.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+        partialValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE);
+        partialValues.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        Uri upsertUri = mContext.getContentResolver().insert(
+                WeatherEntry.buildWeatherUpsertUri(), partialValues);
+        assertEquals("Error: the partial upsert didn't update the day in place", weatherRowId,
+                ContentUris.parseId(upsertUri));
+
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        TestUtilities.validateCursor("testPartialUpsert.  Error validating WeatherEntry.",
+                cursor, weatherValues);
+    }
+
+    /*
+        A batch that inserts a location and its weather, referring back to the location's
+        insert for its ID, should be stored all together, or not at all.
+     */
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(0);
+        for (ContentValues values : weatherValues) {
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.buildWeatherUpsertUri())
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId)},
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // Now a batch whose last operation fails.  Its location must not be left behind.
+        deleteAllRecordsFromProvider();
+        ContentValues brokenValues = new ContentValues(weatherValues[0]);
+        brokenValues.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        operations.set(operations.size() - 1,
+                ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(brokenValues)
+                        .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                        .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: a weather row without a description should not be stored");
+        } catch (SQLException e) {
+            // expected
+        }
+
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: a failed batch left its location behind", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A ForecastBatch should store its days for a location we already have and one we don't,
+        update days that are already there in place, and leave past days alone, all at once.
+     */
+    public void testStoreForecasts() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+        long[] insertedIds = queryWeatherIds();
+
+        // Every day but the first again, now with meteors, and a few days somewhere new.
+        ForecastBatch forecast = new ForecastBatch(2);
+        int northPole = forecast.addLocation(TestUtilities.TEST_LOCATION);
+        int mountainView = forecast.addLocation("94043");
+        forecast.setCity(mountainView, "Mountain View", 37.4056, -122.0775);
+        for (int i = 1; i < weatherValues.length; i++) {
+            forecast.addDay(northPole, weatherValues[i].getAsLong(WeatherEntry.COLUMN_DATE),
+                    800, "Meteors", 1, 2, 3, 4, 5, 6);
+        }
+        for (int i = 1; i <= 3; i++) {
+            forecast.addDay(mountainView, weatherValues[i].getAsLong(WeatherEntry.COLUMN_DATE),
+                    800, "Clear", 10, 20, 30, 40, 50, 60);
+        }
+        forecast.setStaleBefore(WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        storeForecasts(forecast);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(weatherValues.length - 1 + 3, forecast.getRowsWritten());
+        // Past days are history now, and only compactHistory removes them.
+        assertEquals(0, forecast.getRowsDeleted());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(weatherValues.length, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Asteroids",
+                cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        for (int i = 1; cursor.moveToNext(); i++) {
+            assertEquals("Meteors",
+                    cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                assertEquals("Error: storing replaced the row for day " + i, insertedIds[i],
+                        cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+            }
+        }
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"94043"}, null);
+        assertTrue("Error: the new location wasn't stored", cursor.moveToFirst());
+        assertEquals("Mountain View",
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.buildWeatherLocation("94043"),
+                null, null, null, null);
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        The 3 hour slots of a ForecastBatch should land in the hourly table, replacing slots
+        already there, dropping the stale ones, and come back out from a given time on.
+     */
+    public void testStoreHourlyForecasts() {
+        long start = TestUtilities.TEST_DATE;
+        ForecastBatch forecast = new ForecastBatch(0, 8);
+        int northPole = forecast.addLocation(TestUtilities.TEST_LOCATION);
+        forecast.setCity(northPole, "North Pole", 64.7488, -147.353);
+        for (int i = 0; i < 8; i++) {
+            forecast.addSlot(northPole, start + i * HourlyEntry.SLOT_MILLIS, 800,
+                    -20.25 + i, 70, 1020.5, 4.1, 90);
+        }
+        storeForecasts(forecast);
+        assertEquals(8, forecast.getRowsWritten());
+
+        // The same day again, a slot later, with the first slot now over.
+        forecast = new ForecastBatch(0, 8);
+        northPole = forecast.addLocation(TestUtilities.TEST_LOCATION);
+        for (int i = 1; i < 8; i++) {
+            forecast.addSlot(northPole, start + i * HourlyEntry.SLOT_MILLIS, 600,
+                    -10 + i, 80, 1000, 2, 180);
+        }
+        forecast.setStaleBefore(start + HourlyEntry.SLOT_MILLIS);
+        storeForecasts(forecast);
+        assertEquals(7, forecast.getRowsWritten());
+        assertEquals(1, forecast.getRowsDeleted());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, HourlyEntry.COLUMN_SLOT + " ASC");
+        assertEquals(7, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithStartTime(TestUtilities.TEST_LOCATION,
+                        start + 4 * HourlyEntry.SLOT_MILLIS),
+                null, null, null, HourlyEntry.COLUMN_SLOT + " ASC");
+        assertEquals(4, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(HourlyEntry.getSlot(start) + 4,
+                cursor.getInt(cursor.getColumnIndex(HourlyEntry.COLUMN_SLOT)));
+        assertEquals(600, cursor.getInt(cursor.getColumnIndex(HourlyEntry.COLUMN_WEATHER_ID)));
+        assertEquals(-6.0, HourlyEntry.fromTenths(
+                cursor.getInt(cursor.getColumnIndex(HourlyEntry.COLUMN_TEMP))), 0.05);
+        assertEquals(1000.0, HourlyEntry.fromTenths(
+                cursor.getInt(cursor.getColumnIndex(HourlyEntry.COLUMN_PRESSURE))), 0.05);
+        cursor.close();
+    }
+
+    /*
+        Compacting history a few days at a time should end up with the same weekly summaries
+        as doing it all at once, and leave the recent days alone.
+     */
+    public void testCompactHistory() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        // Everything before the eighth day, three days at a time, so weeks span compactions.
+        final int keep = weatherValues.length - 7;
+        long before = WeatherContract.normalizeDate(
+                weatherValues[7].getAsLong(WeatherEntry.COLUMN_DATE));
+        int compacted = 0;
+        WeatherProvider provider = WeatherProvider.getLocalInstance();
+        assertNotNull("Error: the weather provider wasn't created", provider);
+        int days;
+        do {
+            days = provider.compactHistory(before, 3);
+            compacted += days;
+        } while (days == 3);
+        assertEquals("Error: compacting again found more to do",
+                0, provider.compactHistory(before, 3));
+        assertEquals(7, compacted);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(keep, cursor.getCount());
+        cursor.close();
+
+        // createBulkInsertWeatherValues makes day i's min 65 - i and max 75 + i.
+        cursor = mContext.getContentResolver().query(
+                WeeklyEntry.buildWeeklyLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeeklyEntry.COLUMN_WEEK + " ASC");
+        assertTrue("Error: no weekly summaries", cursor.getCount() > 0);
+        int days = 0;
+        int firstDay = 0;
+        while (cursor.moveToNext()) {
+            int weekDays = cursor.getInt(cursor.getColumnIndex(WeeklyEntry.COLUMN_DAYS));
+            int lastDay = firstDay + weekDays - 1;
+            assertEquals(65.0 - lastDay,
+                    cursor.getDouble(cursor.getColumnIndex(WeeklyEntry.COLUMN_MIN_TEMP)));
+            assertEquals(75.0 + lastDay,
+                    cursor.getDouble(cursor.getColumnIndex(WeeklyEntry.COLUMN_MAX_TEMP)));
+            assertEquals(1.2 + 0.01 * (firstDay + lastDay) / 2,
+                    cursor.getDouble(cursor.getColumnIndex(WeeklyEntry.COLUMN_HUMIDITY)),
+                    0.0001);
+            days += weekDays;
+            firstDay = lastDay + 1;
+        }
+        cursor.close();
+        assertEquals(7, days);
+    }
+
+    /*
+        With the stale time set to now, as the sync does, a slot from earlier today is dropped
+        while the one we're in and the ones to come are kept.
+     */
+    public void testStoreDropsPassedSlots() {
+        long now = System.currentTimeMillis();
+        int currentSlot = HourlyEntry.getSlot(now);
+        ForecastBatch forecast = new ForecastBatch(0, 3);
+        int northPole = forecast.addLocation(TestUtilities.TEST_LOCATION);
+        forecast.setCity(northPole, "North Pole", 64.7488, -147.353);
+        for (int slot = currentSlot - 1; slot <= currentSlot + 1; slot++) {
+            forecast.addSlot(northPole, HourlyEntry.getSlotStartMillis(slot), 800,
+                    -20, 70, 1020, 4, 90);
+        }
+        forecast.setStaleBefore(now);
+        storeForecasts(forecast);
+        assertEquals(1, forecast.getRowsDeleted());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, HourlyEntry.COLUMN_SLOT + " ASC");
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the slot we're in was dropped", currentSlot,
+                cursor.getInt(cursor.getColumnIndex(HourlyEntry.COLUMN_SLOT)));
+        cursor.close();
+    }
+
+    private void storeForecasts(ForecastBatch forecast) {
+        WeatherProvider provider = WeatherProvider.getLocalInstance();
+        assertNotNull("Error: the weather provider wasn't created", provider);
+        provider.storeForecasts(forecast);
+    }
+
+    /*
+        Several writes in quick succession should reach observers as one notification per
+        URI, however many times each was changed.
+     */
+    public void testCoalescedNotifications() {
+        final ChangeNotifier notifier = WeatherProvider.getChangeNotifier();
+        // A window long enough that this test can't be too slow to fit in it.
+        notifier.setWindowMillis(1000);
+        try {
+            TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+            mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+            // Get setUp's clean up out of the way.
+            notifier.flush();
+            final long requested = notifier.getRequestedCount();
+            final long delivered = notifier.getDeliveredCount();
+
+            Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                    TestUtilities.createNorthPoleLocationValues());
+            long locationRowId = ContentUris.parseId(locationUri);
+            ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+            mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(),
+                    weatherValues);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.COLUMN_DATE + " = ?",
+                    new String[]{weatherValues[0].getAsString(WeatherEntry.COLUMN_DATE)});
+
+            weatherObserver.waitForNotificationOrFail();
+            mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+            // One location and three weather changes, sent as one of each.
+            assertEquals(requested + 4, notifier.getRequestedCount());
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return notifier.getDeliveredCount() >= delivered + 2;
+                }
+            }.run();
+            assertEquals(delivered + 2, notifier.getDeliveredCount());
+        } finally {
+            notifier.setWindowMillis(ChangeNotifier.DEFAULT_WINDOW_MILLIS);
+        }
+    }
+
+    public void testCollapseUris() {
+        Set<Uri> uris = new LinkedHashSet<Uri>();
+        uris.add(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        uris.add(WeatherEntry.CONTENT_URI);
+        uris.add(LocationEntry.CONTENT_URI);
+        List<Uri> collapsed = ChangeNotifier.collapse(uris);
+        assertEquals(2, collapsed.size());
+        assertTrue(collapsed.contains(WeatherEntry.CONTENT_URI));
+        assertTrue(collapsed.contains(LocationEntry.CONTENT_URI));
+    }
+
+    /*
+        Not a pass/fail test: logs how many rows a second bulkInsert manages for a day's
+        forecast, a handful of locations, and a very large batch, inserting into an empty
+        table, replacing existing rows, and upserting them.
+     */
+    public void testBulkInsertThroughput() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        for (int records : new int[] {14, 100, 10000}) {
+            ContentValues[] values = createBulkInsertWeatherValues(locationRowId, records);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+            long insertMillis = timeBulkInsert(WeatherEntry.CONTENT_URI, values);
+            long replaceMillis = timeBulkInsert(WeatherEntry.CONTENT_URI, values);
+            long upsertMillis = timeBulkInsert(WeatherEntry.buildWeatherUpsertUri(), values);
+
+            Log.d(LOG_TAG, records + " rows: insert " + rowsPerSecond(records, insertMillis) +
+                    " rows/s, replace " + rowsPerSecond(records, replaceMillis) +
+                    " rows/s, upsert " + rowsPerSecond(records, upsertMillis) + " rows/s");
+        }
+    }
+
+    public void testProviderTimings() {
+        ProviderTimings timings = WeatherProvider.getTimings();
+        boolean wasEnabled = timings.isEnabled();
+        timings.setEnabled(true);
+        timings.reset();
+        try {
+            Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                    TestUtilities.createNorthPoleLocationValues());
+            long locationRowId = ContentUris.parseId(locationUri);
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    createBulkInsertWeatherValues(locationRowId));
+
+            // Different sort orders, so the second query doesn't come out of the query cache.
+            for (String sortOrder : new String[] {null, WeatherEntry.COLUMN_DATE + " DESC"}) {
+                Cursor cursor = mContext.getContentResolver().query(
+                        WeatherEntry.buildWeatherLocationWithStartDate(
+                                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                        null, null, null, sortOrder);
+                cursor.close();
+            }
+
+            // Anything else in the process, a sync for one, may be using the provider too.
+            int op = ProviderTimings.OP_QUERY;
+            int match = WeatherProvider.WEATHER_WITH_LOCATION;
+            assertTrue(timings.getCount(op, match) >= 2);
+            assertTrue(timings.getRowCount(op, match) >= 2 * BULK_INSERT_RECORDS_TO_INSERT);
+            assertTrue(timings.getMaxMillis(op, match) <= timings.getTotalMillis(op, match));
+            assertTrue(timings.getPercentileNanos(op, match, 50)
+                    <= timings.getPercentileNanos(op, match, 99));
+            assertTrue(timings.getCount(ProviderTimings.OP_INSERT, WeatherProvider.LOCATION) >= 1);
+            assertTrue(timings.getRowCount(ProviderTimings.OP_BULK_INSERT,
+                    WeatherProvider.WEATHER) >= BULK_INSERT_RECORDS_TO_INSERT);
+            Log.d(LOG_TAG, "Provider timings:\n" + timings.dump());
+
+            // Turned off, nothing more is recorded.
+            timings.setEnabled(false);
+            timings.reset();
+            mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null, null,
+                    null).close();
+            assertEquals(0, timings.getCount(op, WeatherProvider.LOCATION));
+        } finally {
+            timings.setEnabled(wasEnabled);
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs how long forecast queries take while another thread keeps
+        writing forecasts, the way they do while a sync is storing a batch of locations.
+     */
+    public void testQueryLatencyUnderSyncLoad() throws Exception {
+        ProviderTimings timings = WeatherProvider.getTimings();
+        boolean wasEnabled = timings.isEnabled();
+        timings.setEnabled(true);
+        timings.reset();
+        try {
+            Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                    TestUtilities.createNorthPoleLocationValues());
+            final ContentValues[] values =
+                    createBulkInsertWeatherValues(ContentUris.parseId(locationUri), 1000);
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20; i++) {
+                        mContext.getContentResolver().bulkInsert(
+                                WeatherEntry.buildWeatherUpsertUri(), values);
+                    }
+                }
+            };
+            writer.start();
+            // Every write clears the query cache, so these all go to the database.
+            while (writer.isAlive()) {
+                Cursor cursor = mContext.getContentResolver().query(
+                        WeatherEntry.buildWeatherLocationWithStartDate(
+                                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                        null, null, null, null);
+                cursor.close();
+            }
+            writer.join();
+
+            int op = ProviderTimings.OP_QUERY;
+            int match = WeatherProvider.WEATHER_WITH_LOCATION;
+            assertTrue(timings.getCount(op, match) > 0);
+            Log.d(LOG_TAG, "Forecast queries under load: " + timings.getCount(op, match) +
+                    ", p50 " + timings.getPercentileNanos(op, match, 50) / 1000 + "us, p99 " +
+                    timings.getPercentileNanos(op, match, 99) / 1000 + "us, max " +
+                    timings.getMaxMillis(op, match) + "ms");
+        } finally {
+            timings.setEnabled(wasEnabled);
+        }
+    }
+
+    /*
+        The telemetry table only keeps the most recent syncs, newest on top when asked.
+     */
+    public void testSyncTelemetryKeepsRecentSyncs() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(SyncTelemetryEntry.CONTENT_URI, null, null);
+
+        int syncs = SyncTelemetryEntry.MAX_ROWS + 5;
+        for (int i = 0; i < syncs; i++) {
+            ContentValues values = TestUtilities.createSyncTelemetryValues(i);
+            Uri uri = resolver.insert(SyncTelemetryEntry.CONTENT_URI, values);
+            assertTrue("Error: couldn't insert sync telemetry", ContentUris.parseId(uri) > 0);
+        }
+
+        Cursor cursor = resolver.query(SyncTelemetryEntry.CONTENT_URI, null, null, null,
+                SyncTelemetryEntry._ID + " DESC");
+        assertEquals("Error: older syncs weren't dropped",
+                SyncTelemetryEntry.MAX_ROWS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: newest sync is wrong", cursor,
+                TestUtilities.createSyncTelemetryValues(syncs - 1));
+        assertTrue(cursor.moveToLast());
+        TestUtilities.validateCurrentRecord("Error: oldest sync kept is wrong", cursor,
+                TestUtilities.createSyncTelemetryValues(syncs - SyncTelemetryEntry.MAX_ROWS));
+        cursor.close();
+
+        resolver.delete(SyncTelemetryEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        Repeating a forecast query should come out of the cache with the same rows, and any
+        write should stop the old rows from being served.
+     */
+    public void testQueryCache() {
+        // The cache needs Cursor.getType to copy rows.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        ForecastQueryCache cache = WeatherProvider.getQueryCache();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+
+        long hits = cache.getHitCount();
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, null, null, null, sortOrder);
+        assertEquals("Error: first query after a write was served from the cache",
+                hits, cache.getHitCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null, sortOrder);
+        assertEquals("Error: repeated query wasn't served from the cache",
+                hits + 1, cache.getHitCount());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testQueryCache.  Error validating cached row " + i,
+                    cursor, bulkInsertContentValues[i]);
+        }
+        cursor.close();
+
+        // Change a day, and make sure we see the change.
+        ContentValues updatedValues = new ContentValues(bulkInsertContentValues[0]);
+        updatedValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{updatedValues.getAsString(WeatherEntry.COLUMN_DATE)});
+
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null, sortOrder);
+        assertEquals("Error: query after an update was served from the cache",
+                hits + 1, cache.getHitCount());
+        assertTrue(cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("testQueryCache.  Error validating updated row",
+                cursor, updatedValues);
+        cursor.close();
+    }
+
+    private long timeBulkInsert(Uri uri, ContentValues[] values) {
+        long start = SystemClock.elapsedRealtime();
+        int count = mContext.getContentResolver().bulkInsert(uri, values);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertEquals(values.length, count);
+        return elapsed;
+    }
+
+    private static long rowsPerSecond(int rows, long millis) {
+        return rows * 1000L / Math.max(millis, 1);
+    }
+
+    private long[] queryWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[] {WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+public class TestProviderTimings extends AndroidTestCase {
+
+    public void testBucketsCoverEveryTime() {
+        int lastBucket = -1;
+        for (long nanos = 0; nanos < 10000000; nanos = nanos < 100 ? nanos + 1 : nanos * 11 / 10) {
+            int bucket = ProviderTimings.getBucket(nanos);
+            assertTrue("Bucket for " + nanos + " out of range",
+                    bucket >= 0 && bucket < ProviderTimings.BUCKET_COUNT);
+            assertTrue("Buckets should never go down", bucket >= lastBucket);
+            lastBucket = bucket;
+
+            // Reported times are never too low, and at most a quarter too high.
+            long upperBound = ProviderTimings.getBucketUpperBound(bucket);
+            assertTrue(nanos + " reported as " + upperBound, upperBound >= nanos);
+            assertTrue(nanos + " reported as " + upperBound, upperBound <= nanos + nanos / 4);
+        }
+        assertTrue(ProviderTimings.getBucket(Long.MAX_VALUE) < ProviderTimings.BUCKET_COUNT);
+    }
+
+    public void testPercentiles() {
+        ProviderTimings timings = new ProviderTimings(true, WeatherProvider.WEATHER);
+        int op = ProviderTimings.OP_QUERY;
+        assertEquals(0, timings.getPercentileNanos(op, WeatherProvider.WEATHER, 99));
+
+        // 1us to 100us, one each.
+        for (int micros = 1; micros <= 100; micros++) {
+            timings.record(op, WeatherProvider.WEATHER, micros * 1000L, 1);
+        }
+        long p50 = timings.getPercentileNanos(op, WeatherProvider.WEATHER, 50);
+        assertTrue("p50 was " + p50, p50 >= 50000 && p50 <= 62500);
+        long p99 = timings.getPercentileNanos(op, WeatherProvider.WEATHER, 99);
+        assertTrue("p99 was " + p99, p99 >= 99000 && p99 <= 100000);
+        assertEquals(100, timings.getCount(op, WeatherProvider.WEATHER));
+        assertEquals(100, timings.getRowCount(op, WeatherProvider.WEATHER));
+
+        // Kinds of URI we weren't asked to time are ignored.
+        timings.record(op, WeatherProvider.LOCATION, 1000, 1);
+        assertEquals(0, timings.getCount(op, WeatherProvider.LOCATION));
+
+        timings.reset();
+        assertEquals(0, timings.getCount(op, WeatherProvider.WEATHER));
+        assertEquals(0, timings.getPercentileNanos(op, WeatherProvider.WEATHER, 50));
+    }
+}
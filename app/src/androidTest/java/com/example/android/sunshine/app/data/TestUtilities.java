@@ -92,6 +92,29 @@ public class TestUtilities extends AndroidTestCase {
         return testValues;
     }
 
+    /*
+        One sync's telemetry.  Each sync number gets its own values, so rows can be told apart.
+     */
+    static ContentValues createSyncTelemetryValues(int sync) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_STARTED, TEST_DATE + sync);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_TOTAL_MS, 1000 + sync);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_LOCATIONS, 3);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_LOCATIONS_STORED, 2);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_FETCH_MS, 600);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_CONNECT_MS, 900);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_DOWNLOAD_MS, 300);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_BYTES, 4096);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_STORE_MS, 120);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_ROWS_WRITTEN, 29);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_ROWS_DELETED, 2);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_ART_MS, 200);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_NOTIFY_MS, 15);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_COMPACT_MS, 40);
+        values.put(WeatherContract.SyncTelemetryEntry.COLUMN_DAYS_COMPACTED, 7);
+        return values;
+    }
+
     /*
         Students: You can uncomment this function once you have finished creating the
         LocationEntry part of the WeatherContract as well as the WeatherDbHelper.
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class TestForecastClient extends AndroidTestCase {
+
+    public void testBackoffDoublesWithJitter() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            long first = ForecastClient.getBackoffMillis(1, 1000, random);
+            assertTrue("First backoff " + first + " out of range", first >= 500 && first <= 1000);
+
+            long third = ForecastClient.getBackoffMillis(3, 1000, random);
+            assertTrue("Third backoff " + third + " out of range", third >= 2000 && third <= 4000);
+
+            // However many times we've failed, we don't wait forever.
+            long later = ForecastClient.getBackoffMillis(40, 1000, random);
+            assertTrue("Backoff " + later + " should be capped", later <= 30 * 1000);
+        }
+    }
+
+    public void testGivesUpAfterMaxAttempts() {
+        // Nothing listens on port 1, so every attempt fails to connect.
+        ForecastClient client = new ForecastClient("http://127.0.0.1:1/", 1000, 1000, 3, 100);
+        long start = System.currentTimeMillis();
+        try {
+            client.get(client.getBaseUrl() + "forecast/daily", null);
+            fail("Expected the request to fail");
+        } catch (IOException e) {
+            // Two retries, waiting at least 50ms and then 100ms before them.
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Expected to back off between attempts, took " + elapsed + "ms",
+                    elapsed >= 150);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming parser and the original org.json parser agree on recorded
+    OpenWeatherMap responses, and logs how long each takes to chew through them.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    static final int TEST_JULIAN_DAY = 2457012;  // December 20th, 2014
+    static final String TEST_LOCATION = "94043";
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    // A day as recorded from the forecast/daily endpoint.
+    private static final String RECORDED_DAY =
+            "{\"dt\":1419076800,\"temp\":{\"day\":11.42,\"min\":8.68,\"max\":11.42," +
+            "\"night\":8.68,\"eve\":10.87,\"morn\":11.42},\"pressure\":1022.12," +
+            "\"humidity\":93,\"weather\":[{\"id\":501,\"main\":\"Rain\"," +
+            "\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":7.36," +
+            "\"deg\":230,\"clouds\":92,\"rain\":5.5}";
+
+    static String buildRecordedForecast(int days) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0167,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(RECORDED_DAY);
+        }
+        builder.append("]}");
+        return builder.toString();
+    }
+
+    static final String RECORDED_NOT_FOUND =
+            "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    private static InputStream toStream(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testParsersAgree() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        String json = buildRecordedForecast(14);
+
+        ForecastJsonParser treeParser = new ForecastJsonParser(TEST_LOCATION, TEST_JULIAN_DAY);
+        treeParser.parse(json);
+
+        ForecastJsonParser streamParser = new ForecastJsonParser(TEST_LOCATION, TEST_JULIAN_DAY);
+        streamParser.parse(toStream(json));
+
+        assertEquals(HttpURLConnection.HTTP_OK, streamParser.getMessageCode());
+        assertEquals(treeParser.getCityName(), streamParser.getCityName());
+        assertEquals(treeParser.getCityLatitude(), streamParser.getCityLatitude());
+        assertEquals(treeParser.getCityLongitude(), streamParser.getCityLongitude());
+
+        ForecastBatch expected = treeParser.getForecast();
+        ForecastBatch actual = streamParser.getForecast();
+        assertEquals(1, actual.getLocationCount());
+        assertEquals(TEST_LOCATION, actual.getLocationSetting(0));
+        assertEquals(treeParser.getCityName(), actual.getCityName(0));
+        assertEquals(14, expected.getDayCount());
+        assertEquals(expected.getDayCount(), actual.getDayCount());
+        for (int i = 0; i < expected.getDayCount(); i++) {
+            String error = "Error: day " + i + " differs between parsers";
+            assertEquals(error, expected.getDate(i), actual.getDate(i));
+            assertEquals(error, expected.getWeatherId(i), actual.getWeatherId(i));
+            assertEquals(error, expected.getDescription(i), actual.getDescription(i));
+            assertEquals(error, expected.getMinTemp(i), actual.getMinTemp(i));
+            assertEquals(error, expected.getMaxTemp(i), actual.getMaxTemp(i));
+            assertEquals(error, expected.getHumidity(i), actual.getHumidity(i));
+            assertEquals(error, expected.getPressure(i), actual.getPressure(i));
+            assertEquals(error, expected.getWindSpeed(i), actual.getWindSpeed(i));
+            assertEquals(error, expected.getDegrees(i), actual.getDegrees(i));
+        }
+    }
+
+    public void testErrorCode() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        ForecastJsonParser streamParser = new ForecastJsonParser(TEST_LOCATION, TEST_JULIAN_DAY);
+        streamParser.parse(toStream(RECORDED_NOT_FOUND));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, streamParser.getMessageCode());
+
+        ForecastJsonParser treeParser = new ForecastJsonParser(TEST_LOCATION, TEST_JULIAN_DAY);
+        treeParser.parse(RECORDED_NOT_FOUND);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, treeParser.getMessageCode());
+    }
+
+    public void testMalformedResponse() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        // Chop the response off halfway through a day.
+        String json = buildRecordedForecast(3);
+        json = json.substring(0, json.length() - 40) + "}]}";
+        try {
+            new ForecastJsonParser(TEST_LOCATION, TEST_JULIAN_DAY).parse(toStream(json));
+            fail("Error: a truncated day should not parse");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+    public void testParserTiming() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        String json = buildRecordedForecast(14);
+        byte[] bytes = json.getBytes("UTF-8");
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            new ForecastJsonParser(TEST_LOCATION, TEST_JULIAN_DAY)
+                    .parse(new String(bytes, "UTF-8"));
+        }
+        long treeMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            new ForecastJsonParser(TEST_LOCATION, TEST_JULIAN_DAY)
+                    .parse(new ByteArrayInputStream(bytes));
+        }
+        long streamMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.d(LOG_TAG, BENCHMARK_ITERATIONS + " x 14 day forecast: org.json " + treeMillis +
+                "ms, streaming " + streamMillis + "ms");
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public class TestForecastValidatorCache extends AndroidTestCase {
+
+    private static final String TEST_REQUEST =
+            "http://localhost/data/2.5/forecast/daily?q=99705&mode=json&units=metric&cnt=14";
+    private static final int TEST_JULIAN_DAY = 2457012;
+    private static final String TEST_HASH = "0123456789abcdef0123456789abcdef";
+
+    private ForecastValidatorCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new ForecastValidatorCache(mContext);
+        mCache.clear(TEST_REQUEST);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear(TEST_REQUEST);
+        super.tearDown();
+    }
+
+    /*
+        A connection that is never connected.  We only need it to collect request headers.
+     */
+    private static HttpURLConnection newConnection() throws IOException {
+        return new HttpURLConnection(new URL(TEST_REQUEST)) {
+            @Override
+            public void disconnect() { }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+
+            @Override
+            public void connect() { }
+        };
+    }
+
+    public void testConditionalHeaders() throws Throwable {
+        String etag = "\"abc123\"";
+        String lastModified = "Sat, 20 Dec 2014 12:00:00 GMT";
+        mCache.store(TEST_REQUEST, TEST_JULIAN_DAY, etag, lastModified, TEST_HASH);
+
+        HttpURLConnection request = newConnection();
+        mCache.addConditionalHeaders(request, TEST_REQUEST, TEST_JULIAN_DAY);
+        assertEquals(etag, request.getRequestProperty("If-None-Match"));
+        assertEquals(lastModified, request.getRequestProperty("If-Modified-Since"));
+
+        // Validators from yesterday mustn't be used: today's dates haven't been stored yet.
+        HttpURLConnection tomorrow = newConnection();
+        mCache.addConditionalHeaders(tomorrow, TEST_REQUEST, TEST_JULIAN_DAY + 1);
+        assertNull(tomorrow.getRequestProperty("If-None-Match"));
+        assertNull(tomorrow.getRequestProperty("If-Modified-Since"));
+    }
+
+    public void testBodyHash() throws Throwable {
+        mCache.store(TEST_REQUEST, TEST_JULIAN_DAY, null, null, TEST_HASH);
+
+        assertTrue(mCache.isUnchanged(TEST_REQUEST, TEST_JULIAN_DAY, TEST_HASH));
+        assertFalse(mCache.isUnchanged(TEST_REQUEST, TEST_JULIAN_DAY, "feedface"));
+        assertFalse(mCache.isUnchanged(TEST_REQUEST, TEST_JULIAN_DAY + 1, TEST_HASH));
+        assertFalse(mCache.isUnchanged(TEST_REQUEST, TEST_JULIAN_DAY, null));
+
+        mCache.clear(TEST_REQUEST);
+        assertFalse(mCache.isUnchanged(TEST_REQUEST, TEST_JULIAN_DAY, TEST_HASH));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that recorded OpenWeatherMap 3 hour forecasts turn into the slots we expect.
+ */
+public class TestHourlyJsonParser extends AndroidTestCase {
+
+    // The first slot of the recorded forecast, in seconds since the epoch.
+    private static final long RECORDED_START = 1419076800L;
+
+    // A slot as recorded from the forecast endpoint, with its time left to fill in.
+    private static final String RECORDED_SLOT =
+            "{\"dt\":%d,\"main\":{\"temp\":11.42,\"temp_min\":10.87,\"temp_max\":11.42," +
+            "\"pressure\":1022.12,\"sea_level\":1030.1,\"grnd_level\":1022.12," +
+            "\"humidity\":93,\"temp_kf\":0.55},\"weather\":[{\"id\":501,\"main\":\"Rain\"," +
+            "\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"clouds\":{\"all\":92}," +
+            "\"wind\":{\"speed\":7.36,\"deg\":230.502},\"rain\":{\"3h\":5.5}," +
+            "\"sys\":{\"pod\":\"d\"},\"dt_txt\":\"2014-12-20 12:00:00\"}";
+
+    /**
+     * @param start The first slot's time, in seconds since the epoch.  Slots from the past
+     * are dropped as soon as they're stored, so a sync test wants slots starting about now.
+     */
+    static String buildRecordedHourlyForecast(long start, int slots) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"cod\":\"200\",\"message\":0.0032,\"cnt\":").append(slots)
+                .append(",\"list\":[");
+        for (int i = 0; i < slots; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(String.format(RECORDED_SLOT, start + i * 3 * 60 * 60));
+        }
+        builder.append("],\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lat\":37.386051,\"lon\":-122.083847},")
+                .append("\"country\":\"US\"}}");
+        return builder.toString();
+    }
+
+    private static InputStream toStream(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testParseSlots() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        HourlyJsonParser parser = new HourlyJsonParser(TestForecastJsonParser.TEST_LOCATION);
+        parser.parse(toStream(buildRecordedHourlyForecast(RECORDED_START, 40)));
+        assertEquals(HttpURLConnection.HTTP_OK, parser.getMessageCode());
+
+        ForecastBatch forecast = parser.getForecast();
+        assertEquals(1, forecast.getLocationCount());
+        assertEquals("Mountain View", forecast.getCityName(0));
+        assertEquals(0, forecast.getDayCount());
+        assertEquals(40, forecast.getSlotCount());
+
+        int firstSlot = HourlyEntry.getSlot(RECORDED_START * 1000);
+        for (int i = 0; i < forecast.getSlotCount(); i++) {
+            assertEquals("Error: slot " + i + " is out of order", firstSlot + i,
+                    forecast.getSlot(i));
+        }
+        assertEquals(501, forecast.getSlotWeatherId(0));
+        assertEquals(114, forecast.getSlotTemp(0));
+        assertEquals(93, forecast.getSlotHumidity(0));
+        assertEquals(10221, forecast.getSlotPressure(0));
+        assertEquals(74, forecast.getSlotWindSpeed(0));
+        assertEquals(231, forecast.getSlotDegrees(0));
+    }
+
+    public void testErrorCode() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        HourlyJsonParser parser = new HourlyJsonParser(TestForecastJsonParser.TEST_LOCATION);
+        parser.parse(toStream(TestForecastJsonParser.RECORDED_NOT_FOUND));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, parser.getMessageCode());
+        assertEquals(0, parser.getForecast().getSlotCount());
+    }
+
+    public void testIncompleteSlot() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        // A slot with no temperature can't be shown, so the whole response is refused.
+        String json = buildRecordedHourlyForecast(RECORDED_START, 2)
+                .replaceFirst("\"temp\":11.42,", "");
+        HourlyJsonParser parser = new HourlyJsonParser(TestForecastJsonParser.TEST_LOCATION);
+        try {
+            parser.parse(toStream(json));
+            fail("Error: a slot without a temperature was accepted");
+        } catch (JSONException expected) {
+        }
+    }
+}
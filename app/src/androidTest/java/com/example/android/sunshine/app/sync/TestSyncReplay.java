@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.ReplayServer;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/*
+    Runs the whole sync, fetch to parse to store to notify, against recorded OpenWeatherMap
+    responses played back from a ReplayServer on the device.  Checks that each kind of
+    response ends up with the right rows and location status, and logs how fast and how
+    hungry the sync is while doing it.
+ */
+public class TestSyncReplay extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncReplay.class.getSimpleName();
+
+    private static final String TEST_LOCATION = "94043";
+
+    private static final String RECORDED_MALFORMED =
+            "{\"cod\":\"200\",\"list\":[not json at all]}";
+
+    private ReplayServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private Map<String, ?> mSavedPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new ReplayServer();
+        // Tiny backoff, so retries don't slow the tests down.
+        SunshineSyncAdapter.setForecastClient(new ForecastClient(mServer.getBaseUrl(),
+                2000, 2000, ForecastClient.DEFAULT_MAX_ATTEMPTS, 1));
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+
+        // Sync just our one location, with the built-in art (so nothing is fetched from the
+        // real network) and without posting a notification.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedPrefs = prefs.getAll();
+        prefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key), TEST_LOCATION)
+                .remove(mContext.getString(R.string.pref_location_latitude))
+                .remove(mContext.getString(R.string.pref_location_longitude))
+                .putString(mContext.getString(R.string.pref_art_pack_key),
+                        mContext.getString(R.string.pref_art_pack_sunshine))
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key), false)
+                .commit();
+        SettingsSnapshot.invalidate();
+        deleteForecasts();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setForecastClient(null);
+        mServer.shutdown();
+        deleteForecasts();
+        restorePrefs(PreferenceManager.getDefaultSharedPreferences(mContext), mSavedPrefs);
+        SettingsSnapshot.invalidate();
+        super.tearDown();
+    }
+
+    private static void restorePrefs(SharedPreferences prefs, Map<String, ?> saved) {
+        SharedPreferences.Editor editor = prefs.edit().clear();
+        for (Map.Entry<String, ?> entry : saved.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            }
+        }
+        editor.commit();
+    }
+
+    private void deleteForecasts() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * @return how long the sync took, in nanoseconds.
+     */
+    private long sync() {
+        long start = System.nanoTime();
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                new SyncResult());
+        return System.nanoTime() - start;
+    }
+
+    private int countStoredDays() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TEST_LOCATION),
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private int countStoredSlots() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocation(TEST_LOCATION),
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private int getLocationStatus() {
+        SettingsSnapshot.invalidate();
+        return SettingsSnapshot.get(mContext).getLocationStatus();
+    }
+
+    public void testFullForecast() {
+        // The daily forecast, then the 3 hour one, which devices without JsonReader skip.
+        mServer.enqueue(ReplayServer.Response.json(
+                TestForecastJsonParser.buildRecordedForecast(14)).gzipped());
+        mServer.enqueue(ReplayServer.Response.json(
+                TestHourlyJsonParser.buildRecordedHourlyForecast(
+                        System.currentTimeMillis() / 1000, 40)).gzipped());
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, getLocationStatus());
+        assertEquals(14, countStoredDays());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            assertEquals(2, mServer.getRequestCount());
+            assertEquals(40, countStoredSlots());
+        } else {
+            assertEquals(1, mServer.getRequestCount());
+            assertEquals(0, countStoredSlots());
+        }
+    }
+
+    public void testHourlyFailureKeepsDailyForecast() {
+        mServer.enqueue(ReplayServer.Response.json(
+                TestForecastJsonParser.buildRecordedForecast(14)));
+        mServer.enqueue(ReplayServer.Response.json(RECORDED_MALFORMED));
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, getLocationStatus());
+        assertEquals(14, countStoredDays());
+        assertEquals(0, countStoredSlots());
+    }
+
+    public void testSmallForecast() {
+        mServer.setDefaultResponse(ReplayServer.Response.json(
+                TestForecastJsonParser.buildRecordedForecast(1)));
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, getLocationStatus());
+        assertEquals(1, countStoredDays());
+    }
+
+    public void testMalformedForecast() {
+        mServer.setDefaultResponse(ReplayServer.Response.json(RECORDED_MALFORMED));
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, getLocationStatus());
+        assertEquals(0, countStoredDays());
+    }
+
+    public void testCityNotFound() {
+        // OpenWeatherMap reports an unknown city with a 200 and an error code in the body.
+        mServer.setDefaultResponse(ReplayServer.Response.json(
+                TestForecastJsonParser.RECORDED_NOT_FOUND));
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, getLocationStatus());
+        assertEquals(0, countStoredDays());
+    }
+
+    public void testServerErrorIsRetried() {
+        mServer.setDefaultResponse(new ReplayServer.Response(503, "Service Unavailable"));
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, getLocationStatus());
+        assertEquals(ForecastClient.DEFAULT_MAX_ATTEMPTS, mServer.getRequestCount());
+
+        // One bad response, then a good one, is a successful sync.
+        deleteForecasts();
+        mServer.enqueue(new ReplayServer.Response(500, "Internal Server Error"));
+        mServer.setDefaultResponse(ReplayServer.Response.json(
+                TestForecastJsonParser.buildRecordedForecast(14)));
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, getLocationStatus());
+        assertEquals(14, countStoredDays());
+    }
+
+    public void testSlowTrickle() {
+        mServer.setDefaultResponse(ReplayServer.Response.json(
+                TestForecastJsonParser.buildRecordedForecast(14)).trickled(256, 20));
+        long nanos = sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, getLocationStatus());
+        assertEquals(14, countStoredDays());
+        Log.d(LOG_TAG, "Trickled sync took " + nanos / 1000000 + "ms");
+    }
+
+    /*
+        Not a pass/fail test: logs the throughput, latency and allocations of back to back
+        syncs of a full forecast.  Each sync starts from an empty database, so every one of
+        them goes all the way through to storing and notifying.
+     */
+    @SuppressWarnings("deprecation")
+    public void testSyncThroughput() {
+        final int syncs = 20;
+        mServer.setDefaultResponse(ReplayServer.Response.json(
+                TestForecastJsonParser.buildRecordedForecast(14)).gzipped());
+        // Warm up.
+        sync();
+
+        long[] nanos = new long[syncs];
+        long totalNanos = 0;
+        Debug.resetGlobalAllocSize();
+        Debug.resetGlobalAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < syncs; i++) {
+            Debug.stopAllocCounting();
+            deleteForecasts();
+            Debug.startAllocCounting();
+            nanos[i] = sync();
+            totalNanos += nanos[i];
+        }
+        Debug.stopAllocCounting();
+        assertEquals(14, countStoredDays());
+
+        Arrays.sort(nanos);
+        Log.d(LOG_TAG, syncs + " syncs: " + (syncs * 1000000000L / Math.max(totalNanos, 1)) +
+                " syncs/s, median " + nanos[syncs / 2] / 1000000 + "ms, max " +
+                nanos[syncs - 1] / 1000000 + "ms, " +
+                Debug.getGlobalAllocCount() / syncs + " allocations (" +
+                Debug.getGlobalAllocSize() / syncs / 1024 + "KB) a sync, " +
+                mServer.getConnectionCount() + " connections for " +
+                mServer.getRequestCount() + " requests");
+    }
+}
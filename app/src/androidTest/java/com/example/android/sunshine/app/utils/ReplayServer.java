@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A stand-in for OpenWeatherMap that plays back recorded responses from a socket on this
+ * device, so the sync can be run end to end without the network, as often as we like, and
+ * with exactly the responses we want.
+ *
+ * It speaks just enough HTTP/1.1 for HttpURLConnection: it reads a GET's headers, ignores
+ * what was asked for, and answers with the next queued response, or the default response
+ * once the queue is empty.  Connections are kept alive, and each gets its own thread, so
+ * parallel fetches and connection reuse work as they do against the real server.
+ */
+public class ReplayServer {
+    private static final String LOG_TAG = ReplayServer.class.getSimpleName();
+
+    /**
+     * One recorded response.
+     */
+    public static class Response {
+        final int mCode;
+        final byte[] mBody;
+        boolean mGzip;
+        int mTrickleBytes;
+        long mTrickleDelayMillis;
+
+        public Response(int code, String body) {
+            mCode = code;
+            try {
+                mBody = body.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        public static Response json(String body) {
+            return new Response(200, body);
+        }
+
+        /**
+         * Gzips the body, if the request says it can take it.
+         */
+        public Response gzipped() {
+            mGzip = true;
+            return this;
+        }
+
+        /**
+         * Sends the body a few bytes at a time, like a bad mobile connection.
+         */
+        public Response trickled(int bytes, long delayMillis) {
+            mTrickleBytes = bytes;
+            mTrickleDelayMillis = delayMillis;
+            return this;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final ConcurrentLinkedQueue<Response> mQueue = new ConcurrentLinkedQueue<Response>();
+    private volatile Response mDefaultResponse = new Response(404, "");
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private volatile boolean mShutdown;
+
+    public ReplayServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(LOG_TAG) {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * @return a base URL for ForecastClient that points here.
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/data/2.5/";
+    }
+
+    /**
+     * Answers the next request with this, ahead of the default response.
+     */
+    public void enqueue(Response response) {
+        mQueue.add(response);
+    }
+
+    /**
+     * Answers every request nothing has been queued for with this.
+     */
+    public void setDefaultResponse(Response response) {
+        mDefaultResponse = response;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public void shutdown() {
+        mShutdown = true;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error closing server socket", e);
+        }
+    }
+
+    private void acceptConnections() {
+        while (!mShutdown) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Closed by shutdown.
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            Thread connectionThread = new Thread(LOG_TAG + " connection") {
+                @Override
+                public void run() {
+                    serveConnection(socket);
+                }
+            };
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            while (!mShutdown) {
+                String requestLine = readLine(in);
+                if (null == requestLine) break;
+                boolean acceptsGzip = false;
+                String header;
+                while (null != (header = readLine(in)) && header.length() > 0) {
+                    String lower = header.toLowerCase();
+                    if (lower.startsWith("accept-encoding:") && lower.contains("gzip")) {
+                        acceptsGzip = true;
+                    }
+                }
+                mRequestCount.incrementAndGet();
+
+                Response response = mQueue.poll();
+                if (null == response) {
+                    response = mDefaultResponse;
+                }
+                writeResponse(out, response, acceptsGzip);
+            }
+        } catch (IOException e) {
+            // The client went away.
+        } catch (InterruptedException e) {
+            // We're shutting down.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing to do.
+            }
+        }
+    }
+
+    /*
+        Reads a line of headers, without its line ending.  Returns null at the end of the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static void writeResponse(OutputStream out, Response response, boolean acceptsGzip)
+            throws IOException, InterruptedException {
+        byte[] body = response.mBody;
+        boolean gzip = response.mGzip && acceptsGzip;
+        if (gzip) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream gzipStream = new GZIPOutputStream(bytes);
+            gzipStream.write(body);
+            gzipStream.close();
+            body = bytes.toByteArray();
+        }
+
+        StringBuilder headers = new StringBuilder()
+                .append("HTTP/1.1 ").append(response.mCode).append(' ')
+                .append(response.mCode < 400 ? "OK" : "Error").append("\r\n")
+                .append("Content-Type: application/json; charset=utf-8\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n");
+        if (gzip) {
+            headers.append("Content-Encoding: gzip\r\n");
+        }
+        headers.append("\r\n");
+        out.write(headers.toString().getBytes("US-ASCII"));
+
+        if (response.mTrickleBytes <= 0) {
+            out.write(body);
+        } else {
+            for (int offset = 0; offset < body.length; offset += response.mTrickleBytes) {
+                out.write(body, offset, Math.min(response.mTrickleBytes, body.length - offset));
+                out.flush();
+                Thread.sleep(response.mTrickleDelayMillis);
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Weather art from the art pack, already downloaded and decoded at the size it's shown at.
+ * The sync fills it right after it stores a new forecast, so the list, the detail view, the
+ * widgets and the notification can show the art without waiting on the network.  If the art
+ * isn't here they load it themselves, or show the built-in art instead.
+ *
+ * A forecast only has a handful of different kinds of weather, and all the conditions in the
+ * same WeatherConditions bucket share their art.  So the art is kept by bucket rather than by
+ * condition or day: two weeks of sunshine is one bitmap per size, not fourteen.  The sync
+ * adapter runs in the same process as everything else, so they all share the one instance.
+ */
+public class ArtCache {
+    private final String LOG_TAG = ArtCache.class.getSimpleName();
+
+    // A small slice of the heap.  A whole forecast's worth of art at the sizes we show it at
+    // is well under this.
+    private static final int MEMORY_FRACTION = 16;
+
+    private static ArtCache sInstance;
+
+    private final LruCache<String, Bitmap> mCache;
+
+    public static synchronized ArtCache getInstance() {
+        if (null == sInstance) {
+            sInstance = new ArtCache((int) (Runtime.getRuntime().maxMemory() / MEMORY_FRACTION));
+        }
+        return sInstance;
+    }
+
+    ArtCache(int maxBytes) {
+        // The cache is limited by how many bytes of bitmaps it holds, not how many bitmaps, so
+        // a few big pieces of art can't crowd out the heap.
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                // getByteCount would be neater, but needs Honeycomb MR1.
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+    }
+
+    /*
+        The art pack is part of the key, so changing it in the settings never shows the old
+        pack's art.  The old pack's art just ages out.
+     */
+    static String buildKey(String artPack, int weatherId, int width, int height) {
+        return width + "x" + height + "|" + WeatherConditions.getBucket(weatherId) + "|" + artPack;
+    }
+
+    /**
+     * @param artPack The art pack's URL format, from SettingsSnapshot.getArtPack.
+     * @return the art for the condition at the size, or null if we don't have it.
+     */
+    public Bitmap get(String artPack, int weatherId, int width, int height) {
+        if (null == artPack || WeatherConditions.BUCKET_NONE == WeatherConditions.getBucket(weatherId)) {
+            return null;
+        }
+        return mCache.get(buildKey(artPack, weatherId, width, height));
+    }
+
+    /**
+     * Like get, but without counting as a lookup, so the prefetcher checking what it already
+     * has doesn't show up in the hit rate, which is meant to say how the screens are doing.
+     * It looks at a copy of the cache, so it's for the odd check, not for drawing.
+     *
+     * @return whether we have the art for the condition at the size.
+     */
+    public boolean contains(String artPack, int weatherId, int width, int height) {
+        if (null == artPack || WeatherConditions.BUCKET_NONE == WeatherConditions.getBucket(weatherId)) {
+            return false;
+        }
+        return mCache.snapshot().containsKey(buildKey(artPack, weatherId, width, height));
+    }
+
+    /**
+     * Keeps the art for every condition in the same bucket as weatherId.  The bitmap must not
+     * be recycled, or handed back to Glide's bitmap pool, while it's in here.
+     */
+    public void put(String artPack, int weatherId, int width, int height, Bitmap bitmap) {
+        if (null == artPack || null == bitmap
+                || WeatherConditions.BUCKET_NONE == WeatherConditions.getBucket(weatherId)) {
+            return;
+        }
+        mCache.put(buildKey(artPack, weatherId, width, height), bitmap);
+    }
+
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * @return the fraction of lookups that found their art, from 0 to 1.
+     */
+    public float getHitRate() {
+        int hits = mCache.hitCount();
+        int lookups = hits + mCache.missCount();
+        return lookups == 0 ? 0f : (float) hits / lookups;
+    }
+
+    /**
+     * Logs how well the cache is doing, for keeping an eye on it while debugging.
+     */
+    public void logStats() {
+        Log.d(LOG_TAG, this.toString());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "ArtCache[%d of %d bytes, %d hits, %d misses (%.0f%% hit rate), %d evictions]",
+                mCache.size(), mCache.maxSize(), mCache.hitCount(), mCache.missCount(),
+                getHitRate() * 100, mCache.evictionCount());
+    }
+
+    /**
+     * @return the size of the icons in the forecast list and the detail widget's list.
+     */
+    public static int getListIconSize(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+    }
+
+    /**
+     * @return the size of the big artwork in the today layout and the detail view.
+     */
+    public static int getTodayIconSize(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.today_icon);
+    }
+
+    /**
+     * On Honeycomb and higher devices, we can retrieve the size of the large icon.
+     * Prior to that, we use a fixed size.
+     */
+    @SuppressLint("InlinedApi")
+    public static int getNotificationIconWidth(Context context) {
+        Resources resources = context.getResources();
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    @SuppressLint("InlinedApi")
+    public static int getNotificationIconHeight(Context context) {
+        Resources resources = context.getResources();
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+}
@@ -17,6 +17,7 @@ package com.example.android.sunshine.app;
 
 import android.content.Intent;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
@@ -200,12 +201,20 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             // Read weather condition ID from cursor
             int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
 
-            if ( Utility.usingLocalGraphics(getActivity()) ) {
+            SettingsSnapshot settings = SettingsSnapshot.get(getActivity());
+            int artSize = ArtCache.getTodayIconSize(getActivity());
+            Bitmap art = settings.usingLocalGraphics() ? null
+                    : ArtCache.getInstance().get(settings.getArtPack(), weatherId, artSize, artSize);
+            if ( settings.usingLocalGraphics() ) {
                 mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
+            } else if ( null != art ) {
+                // The sync already loaded this art, for this day or another one like it.
+                Glide.clear(mIconView);
+                mIconView.setImageBitmap(art);
             } else {
                 // Use weather art image
                 Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
+                        .load(WeatherConditions.getArtUrl(settings.getArtPack(), weatherId))
                         .error(Utility.getArtResourceForWeatherCondition(weatherId))
                         .crossFade()
                         .into(mIconView);
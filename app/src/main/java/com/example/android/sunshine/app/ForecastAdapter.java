@@ -17,10 +17,12 @@ package com.example.android.sunshine.app;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
+import android.text.format.Time;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -30,7 +32,6 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
@@ -45,10 +46,21 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    private ForecastRow[] mForecastRows = new ForecastRow[0];
+    // What we last showed, to work out what changed when the next cursor arrives.
+    private ForecastListDiff.Rows mRows = ForecastListDiff.Rows.EMPTY;
+    // Everything outside the cursor that changes how a row looks: the day the dates are
+    // relative to, the units and the art pack.
+    private String mDisplayState;
+
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
+    final private ArtCache mArtCache;
+    // The sizes the art is cached at for the list rows and the today row.
+    final private int mListIconSize;
+    final private int mTodayIconSize;
 
     /**
      * Cache of the children views for a forecast list item.
@@ -73,9 +85,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(mForecastRows[adapterPosition].mDate, this);
             mICM.onClick(this);
         }
     }
@@ -88,6 +98,14 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        mArtCache = ArtCache.getInstance();
+        mListIconSize = ArtCache.getListIconSize(context);
+        mTodayIconSize = ArtCache.getTodayIconSize(context);
+        // Rows are identified by their _ID, which stays the same across syncs.  This lets the
+        // RecyclerView keep each row's view across a data set change, and lets
+        // ItemChoiceManager follow the selected row.  It has to be set before
+        // ItemChoiceManager starts observing us.
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -124,63 +142,60 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        // Everything we show was formatted when the row was loaded, so all we do here is set it.
+        ForecastRow row = mForecastRows[position];
         int defaultImage;
-        boolean useLongToday;
+        int artSize;
+        String dayString;
 
         switch (getItemViewType(position)) {
             case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
+                defaultImage = row.mArtResource;
+                artSize = mTodayIconSize;
+                dayString = row.mLongDayString;
                 break;
             default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
+                defaultImage = row.mIconResource;
+                artSize = mListIconSize;
+                dayString = row.mDayString;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        // Most days share their art with some other day, and the sync has usually loaded it
+        // already.  Only if it hasn't do we ask Glide for it.
+        Bitmap art = null == row.mArtUrl ? null
+                : mArtCache.get(row.mArtPack, row.mWeatherId, artSize, artSize);
+        if ( null == row.mArtUrl ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
+        } else if ( null != art ) {
+            // A recycled view might still have a Glide load on the way for another day.
+            Glide.clear(forecastAdapterViewHolder.mIconView);
+            forecastAdapterViewHolder.mIconView.setImageBitmap(art);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(row.mArtUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
         }
 
-        // this enables better animations. even if we lose state due to a device rotation,
-        // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
-
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        // even if we lose state due to a device rotation, the animator can use this to re-find
+        // the original view
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, row.mTransitionName);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(dayString);
 
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.mDescription);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.mDescriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.mHigh);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.mHighA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.mLow);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.mLowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -208,16 +223,81 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mForecastRows.length;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        if ( position < 0 || position >= mForecastRows.length ) return RecyclerView.NO_ID;
+        return mForecastRows[position].mId;
     }
 
     public void swapCursor(Cursor newCursor) {
+        ForecastListDiff.Rows oldRows = mRows;
+        String oldDisplayState = mDisplayState;
         mCursor = newCursor;
-        notifyDataSetChanged();
+        if ( newCursor instanceof ForecastLoader.ForecastCursor ) {
+            // ForecastLoader has already done the work in the background.
+            ForecastLoader.ForecastCursor forecastCursor = (ForecastLoader.ForecastCursor) newCursor;
+            mForecastRows = forecastCursor.getRows();
+            mRows = forecastCursor.getSignatures();
+        } else {
+            mForecastRows = ForecastRow.fromCursor(mContext, newCursor);
+            mRows = ForecastListDiff.snapshot(newCursor, ForecastFragment.COL_WEATHER_ID);
+        }
+        mDisplayState = getDisplayState();
+
+        if ( !mDisplayState.equals(oldDisplayState) ) {
+            // Every row would look different anyway.
+            notifyDataSetChanged();
+        } else {
+            // Only tell the RecyclerView about the rows that changed, so the rest keep their
+            // views as they are rather than all being bound again.
+            ForecastListDiff.dispatch(oldRows, mRows, new ForecastListDiff.Callback() {
+                @Override
+                public void onInserted(int position) {
+                    notifyItemInserted(position);
+                }
+
+                @Override
+                public void onRemoved(int position) {
+                    notifyItemRemoved(position);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    notifyItemMoved(fromPosition, toPosition);
+                }
+
+                @Override
+                public void onChanged(int position) {
+                    notifyItemChanged(position);
+                }
+            });
+
+            // A row that moves into or out of the top spot changes between the today layout
+            // and the normal one.
+            if ( mUseTodayLayout && oldRows.size() > 0 && mRows.size() > 0
+                    && oldRows.mIds[0] != mRows.mIds[0] ) {
+                notifyItemChanged(0);
+                int oldTop = mRows.indexOf(oldRows.mIds[0]);
+                if ( oldTop > 0 ) {
+                    notifyItemChanged(oldTop);
+                }
+            }
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
+    private String getDisplayState() {
+        Time time = new Time();
+        time.setToNow();
+        int julianDay = Time.getJulianDay(time.toMillis(false), time.gmtoff);
+
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        return julianDay + "|" + settings.isMetric() + "|" + settings.getArtPack();
+    }
+
     public Cursor getCursor() {
         return mCursor;
     }
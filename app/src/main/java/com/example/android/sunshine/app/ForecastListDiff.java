@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Works out what changed between two forecast cursors, so that ForecastAdapter can tell the
+ * RecyclerView exactly which rows were inserted, removed, moved or changed instead of having
+ * it rebind every row it's showing.
+ *
+ * Rows are matched up by _ID.  The provider now updates a day in place when a sync brings new
+ * numbers for it, so a day keeps its _ID from one sync to the next.  Whether a row changed is
+ * decided by a hash of all of its columns.
+ */
+class ForecastListDiff {
+
+    /**
+     * Receives the changes, in an order that can be applied one after the other, the way
+     * RecyclerView.Adapter's notifyItem methods expect them.
+     */
+    interface Callback {
+        void onInserted(int position);
+        void onRemoved(int position);
+        void onMoved(int fromPosition, int toPosition);
+        void onChanged(int position);
+    }
+
+    /**
+     * The _IDs and content hashes of a cursor's rows.  CursorLoader closes the old cursor as
+     * soon as it delivers the new one, so this is all we keep of it to diff against.
+     */
+    static class Rows {
+        static final Rows EMPTY = new Rows(new long[0], new int[0]);
+
+        final long[] mIds;
+        final int[] mHashes;
+
+        Rows(long[] ids, int[] hashes) {
+            mIds = ids;
+            mHashes = hashes;
+        }
+
+        int size() {
+            return mIds.length;
+        }
+
+        int indexOf(long id) {
+            for (int i = 0; i < mIds.length; i++) {
+                if (mIds[i] == id) return i;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the rows' _IDs and content hashes.  Leaves the cursor before its first row.
+     */
+    static Rows snapshot(Cursor cursor, int idColumn) {
+        if (null == cursor) return Rows.EMPTY;
+
+        int count = cursor.getCount();
+        int columnCount = cursor.getColumnCount();
+        long[] ids = new long[count];
+        int[] hashes = new int[count];
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(idColumn);
+            // getString works for every column type we have, on every API level.
+            int hash = 1;
+            for (int column = 0; column < columnCount; column++) {
+                String value = cursor.getString(column);
+                hash = 31 * hash + (null == value ? 0 : value.hashCode());
+            }
+            hashes[i] = hash;
+        }
+        cursor.moveToPosition(-1);
+        return new Rows(ids, hashes);
+    }
+
+    /**
+     * Sends the callback the changes that turn the from rows into the to rows.
+     */
+    static void dispatch(Rows from, Rows to, Callback callback) {
+        // The rows as the RecyclerView will see them after each change we've sent so far.
+        List<Long> current = new ArrayList<Long>(from.size());
+        for (long id : from.mIds) {
+            current.add(id);
+        }
+
+        // Removals first, from the bottom up so that the positions above don't move.
+        for (int i = from.size() - 1; i >= 0; i--) {
+            if (to.indexOf(from.mIds[i]) < 0) {
+                current.remove(i);
+                callback.onRemoved(i);
+            }
+        }
+
+        // Then walk down the new rows putting each one in place.  Everything above position i
+        // is already where it belongs, so a row that's somewhere below has to be moved up, and
+        // a row that isn't there at all is new.
+        for (int i = 0; i < to.size(); i++) {
+            long id = to.mIds[i];
+            int at = current.subList(i, current.size()).indexOf(id);
+            if (at == 0) continue;
+            if (at < 0) {
+                current.add(i, id);
+                callback.onInserted(i);
+            } else {
+                current.add(i, current.remove(i + at));
+                callback.onMoved(i + at, i);
+            }
+        }
+
+        // Last, rows we kept whose contents are different.
+        for (int i = 0; i < to.size(); i++) {
+            int old = from.indexOf(to.mIds[i]);
+            if (old >= 0 && from.mHashes[old] != to.mHashes[i]) {
+                callback.onChanged(i);
+            }
+        }
+    }
+}
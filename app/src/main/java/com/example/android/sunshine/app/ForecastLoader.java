@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * A CursorLoader for the forecast list that also does the list's formatting in the background.
+ * Along with the cursor it delivers the ForecastRows ForecastAdapter binds, and the row
+ * signatures ForecastListDiff compares, so that neither has to be worked out on the main
+ * thread when the cursor is swapped in.
+ */
+public class ForecastLoader extends CursorLoader {
+
+    /**
+     * The loaded cursor, carrying what was built from it.
+     */
+    static class ForecastCursor extends CursorWrapper {
+        private final ForecastRow[] mRows;
+        private final ForecastListDiff.Rows mSignatures;
+
+        ForecastCursor(Cursor cursor, ForecastRow[] rows, ForecastListDiff.Rows signatures) {
+            super(cursor);
+            mRows = rows;
+            mSignatures = signatures;
+        }
+
+        ForecastRow[] getRows() {
+            return mRows;
+        }
+
+        ForecastListDiff.Rows getSignatures() {
+            return mSignatures;
+        }
+    }
+
+    /**
+     * @param projection Must be ForecastFragment.FORECAST_COLUMNS, or at least start with them.
+     */
+    public ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (null == cursor) return null;
+
+        try {
+            return new ForecastCursor(cursor, ForecastRow.fromCursor(getContext(), cursor),
+                    ForecastListDiff.snapshot(cursor, ForecastFragment.COL_WEATHER_ID));
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+/**
+ * Everything ForecastAdapter shows for one day, worked out ahead of time.  Formatting the date,
+ * temperatures and description means a handful of new objects and a preference read or two
+ * for every row, and doing that on the main thread in onBindViewHolder costs us frames while
+ * scrolling.  ForecastLoader builds these in the background, so binding a row just sets what's
+ * already here.
+ */
+class ForecastRow {
+    final long mId;
+    final long mDate;
+    final int mWeatherId;
+
+    // The small icon for the list, and the big artwork for the today layout.
+    final int mIconResource;
+    final int mArtResource;
+    // The art pack and where to load the artwork from in it, or null if we're using the local
+    // graphics.
+    final String mArtPack;
+    final String mArtUrl;
+
+    final String mDayString;
+    final String mLongDayString;
+    final String mDescription;
+    final String mDescriptionA11y;
+    final String mHigh;
+    final String mHighA11y;
+    final String mLow;
+    final String mLowA11y;
+    final String mTransitionName;
+
+    /**
+     * Builds the row at the cursor's current position.  The cursor needs the columns of
+     * ForecastFragment.FORECAST_COLUMNS.
+     */
+    ForecastRow(Context context, Cursor cursor, SettingsSnapshot settings) {
+        mId = cursor.getLong(ForecastFragment.COL_WEATHER_ID);
+        mDate = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        mWeatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+        mIconResource = Utility.getIconResourceForWeatherCondition(mWeatherId);
+        mArtResource = Utility.getArtResourceForWeatherCondition(mWeatherId);
+        mArtPack = settings.usingLocalGraphics() ? null : settings.getArtPack();
+        mArtUrl = null == mArtPack ? null : WeatherConditions.getArtUrl(mArtPack, mWeatherId);
+
+        mDayString = Utility.getFriendlyDayString(context, mDate, false);
+        mLongDayString = Utility.getFriendlyDayString(context, mDate, true);
+
+        mDescription = Utility.getStringForWeatherCondition(context, mWeatherId);
+        mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+
+        mHigh = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP), settings.isMetric());
+        mHighA11y = context.getString(R.string.a11y_high_temp, mHigh);
+        mLow = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP), settings.isMetric());
+        mLowA11y = context.getString(R.string.a11y_low_temp, mLow);
+
+        // This enables better animations. Naming the icon after the row rather than its
+        // position means a row that moves doesn't have to be bound again.
+        mTransitionName = "iconView" + mId;
+    }
+
+    /**
+     * Builds a row for every row of the cursor.  Leaves the cursor before its first row.
+     */
+    static ForecastRow[] fromCursor(Context context, Cursor cursor) {
+        if (null == cursor) return new ForecastRow[0];
+
+        // Every row is built with the same settings.
+        SettingsSnapshot settings = SettingsSnapshot.get(context);
+        ForecastRow[] rows = new ForecastRow[cursor.getCount()];
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rows[i] = new ForecastRow(context, cursor, settings);
+        }
+        cursor.moveToPosition(-1);
+        return rows;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * Does the date formatting behind Utility's friendly date helpers.  Those run for every list
+ * row, widget row and notification, and used to build a new Time and a SimpleDateFormat or two
+ * every time.  This keeps one set of formatters for the current locale, and remembers each
+ * string it makes for a day, since the answer only changes when the day, the locale or the
+ * time zone does.
+ *
+ * Anything can call this from any thread.  SimpleDateFormat isn't thread safe, so everything
+ * that uses the formatters is synchronized.
+ */
+public class FriendlyDateFormatter {
+
+    // The kinds of string we remember for each day.
+    private static final int FRIENDLY_DAY = 0;
+    private static final int FRIENDLY_DAY_LONG_TODAY = 1;
+    private static final int FULL_FRIENDLY_DAY = 2;
+    private static final int DAY_NAME = 3;
+    private static final int MONTH_DAY = 4;
+    private static final int KIND_COUNT = 5;
+
+    // Someone scrolling back through old dates shouldn't make us remember them all.
+    private static final int MAX_REMEMBERED = 256;
+
+    private static FriendlyDateFormatter sInstance;
+
+    private final Context mContext;
+
+    // Guarded by this.  mFormattersValid goes false when the locale or time zone changes, and
+    // the formatters are rebuilt on the next call.  The rest is worked out again whenever
+    // "now" is no longer inside today.
+    private boolean mFormattersValid;
+    private Locale mLocale;
+    private SimpleDateFormat mDayNameFormat;
+    private SimpleDateFormat mMonthDayFormat;
+    private SimpleDateFormat mShortDateFormat;
+    private long mGmtOffset;
+    private int mToday;
+    private long mTodayStartMillis;
+    private long mTodayEndMillis;
+    private final SparseArray<String> mRemembered = new SparseArray<String>();
+
+    public static synchronized FriendlyDateFormatter getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new FriendlyDateFormatter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private FriendlyDateFormatter(Context context) {
+        mContext = context;
+
+        // Time zone and locale changes can't be spotted cheaply on every call, so the system
+        // tells us about them.  A change of clock could move us to another day, too.
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_DATE_CHANGED);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, filter);
+    }
+
+    /**
+     * Forgets everything, so the next call starts again from the current locale, time zone
+     * and day.
+     */
+    public synchronized void invalidate() {
+        mFormattersValid = false;
+        mTodayEndMillis = 0;
+    }
+
+    /*
+        Makes sure the formatters and the idea of today are current.  Most of the time this is
+        one call to System.currentTimeMillis and Locale.getDefault.
+     */
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        Locale locale = Locale.getDefault();
+        if (mFormattersValid && locale.equals(mLocale)
+                && now >= mTodayStartMillis && now < mTodayEndMillis) {
+            return;
+        }
+
+        if (!mFormattersValid || !locale.equals(mLocale)) {
+            // These pick up the default time zone when they're made.
+            mDayNameFormat = new SimpleDateFormat("EEEE", locale);
+            mMonthDayFormat = new SimpleDateFormat("MMMM dd", locale);
+            mShortDateFormat = new SimpleDateFormat("EEE MMM dd", locale);
+            mLocale = locale;
+            mFormattersValid = true;
+        }
+
+        Time time = new Time();
+        time.setToNow();
+        mGmtOffset = time.gmtoff;
+        mToday = Time.getJulianDay(now, mGmtOffset);
+        mTodayStartMillis = time.setJulianDay(mToday);
+        mTodayEndMillis = time.setJulianDay(mToday + 1);
+        mRemembered.clear();
+    }
+
+    private String remembered(int julianDay, int kind) {
+        return mRemembered.get(julianDay * KIND_COUNT + kind);
+    }
+
+    private String remember(int julianDay, int kind, String value) {
+        if (mRemembered.size() >= MAX_REMEMBERED) {
+            mRemembered.clear();
+        }
+        mRemembered.put(julianDay * KIND_COUNT + kind, value);
+        return value;
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString(Context, long, boolean)
+     */
+    public synchronized String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        refresh();
+        int julianDay = Time.getJulianDay(dateInMillis, mGmtOffset);
+        int kind = displayLongToday && julianDay == mToday ? FRIENDLY_DAY_LONG_TODAY : FRIENDLY_DAY;
+        String value = remembered(julianDay, kind);
+        if (null != value) return value;
+
+        // The day string for forecast uses the following logic:
+        // For today: "Today, June 8"
+        // For tomorrow:  "Tomorrow"
+        // For the next 5 days: "Wednesday" (just the day name)
+        // For all days after that: "Mon Jun 8"
+        if (kind == FRIENDLY_DAY_LONG_TODAY) {
+            value = mContext.getString(R.string.format_full_friendly_date,
+                    mContext.getString(R.string.today), getMonthDay(julianDay, dateInMillis));
+        } else if (julianDay < mToday + 7) {
+            value = getDayName(julianDay, dateInMillis);
+        } else {
+            value = mShortDateFormat.format(dateInMillis);
+        }
+        return remember(julianDay, kind, value);
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString(Context, long)
+     */
+    public synchronized String getFullFriendlyDayString(long dateInMillis) {
+        refresh();
+        int julianDay = Time.getJulianDay(dateInMillis, mGmtOffset);
+        String value = remembered(julianDay, FULL_FRIENDLY_DAY);
+        if (null != value) return value;
+
+        value = mContext.getString(R.string.format_full_friendly_date,
+                getDayName(julianDay, dateInMillis), getMonthDay(julianDay, dateInMillis));
+        return remember(julianDay, FULL_FRIENDLY_DAY, value);
+    }
+
+    /**
+     * @see Utility#getDayName(Context, long)
+     */
+    public synchronized String getDayName(long dateInMillis) {
+        refresh();
+        return getDayName(Time.getJulianDay(dateInMillis, mGmtOffset), dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay(Context, long)
+     */
+    public synchronized String getFormattedMonthDay(long dateInMillis) {
+        refresh();
+        return getMonthDay(Time.getJulianDay(dateInMillis, mGmtOffset), dateInMillis);
+    }
+
+    private String getDayName(int julianDay, long dateInMillis) {
+        String value = remembered(julianDay, DAY_NAME);
+        if (null != value) return value;
+
+        // If the date is today, return the localized version of "Today" instead of the actual
+        // day name.
+        if (julianDay == mToday) {
+            value = mContext.getString(R.string.today);
+        } else if (julianDay == mToday + 1) {
+            value = mContext.getString(R.string.tomorrow);
+        } else {
+            // Otherwise, the format is just the day of the week (e.g "Wednesday").
+            value = mDayNameFormat.format(dateInMillis);
+        }
+        return remember(julianDay, DAY_NAME, value);
+    }
+
+    private String getMonthDay(int julianDay, long dateInMillis) {
+        String value = remembered(julianDay, MONTH_DAY);
+        if (null != value) return value;
+        return remember(julianDay, MONTH_DAY, mMonthDayFormat.format(dateInMillis));
+    }
+}
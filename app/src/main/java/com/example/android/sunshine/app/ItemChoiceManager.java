@@ -28,8 +28,9 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  When the
+ * adapter reports inserted, removed and moved rows the selection moves along with them; after a
+ * full data set change it is found again by stable ID.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -44,6 +45,24 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        // When the adapter says exactly which rows moved, the checked positions can simply
+        // move with them.
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            remapCheckedPositions(INSERTED, positionStart, positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            remapCheckedPositions(REMOVED, positionStart, positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            remapCheckedPositions(MOVED, fromPosition, toPosition, itemCount);
+        }
     };
 
     private ItemChoiceManager() {
@@ -53,14 +72,12 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
-    /**
-     * How many positions in either direction we will search to try to
-     * find a checked item with a stable ID that moved position across
-     * a data set change. If the item isn't found it will be unselected.
-     */
-    private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
+    static final int INSERTED = 0;
+    static final int REMOVED = 1;
+    static final int MOVED = 2;
 
     /**
      * Running state of which positions are currently checked
@@ -154,7 +171,12 @@ public class ItemChoiceManager {
         mCheckedIdStates.clear();
     }
 
-    void confirmCheckedPositionsById(int oldItemCount) {
+    /*
+        After a change the adapter couldn't describe, finds where each checked ID went.  The
+        adapter only does that when every row looks different (a new day, or new units), and a
+        forecast is a couple of weeks long, so we can afford to look at every row.
+     */
+    void confirmCheckedPositionsById(int itemCount) {
         // Clear out the positional check states, we'll rebuild it below from IDs.
         mCheckStates.clear();
 
@@ -162,32 +184,82 @@ public class ItemChoiceManager {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
+            int newPos = RecyclerView.NO_POSITION;
+            if (lastPos < itemCount && id == mAdapter.getItemId(lastPos)) {
+                newPos = lastPos;
+            } else {
+                for (int searchPos = 0; searchPos < itemCount; searchPos++) {
+                    if (id == mAdapter.getItemId(searchPos)) {
+                        newPos = searchPos;
                         break;
                     }
                 }
+            }
 
-                if (!found) {
-                    mCheckedIdStates.delete(id);
-                    checkedIndex--;
-                }
+            if (newPos == RecyclerView.NO_POSITION) {
+                mCheckedIdStates.removeAt(checkedIndex);
+                checkedIndex--;
             } else {
-                mCheckStates.put(lastPos, true);
+                mCheckStates.put(newPos, true);
+                mCheckedIdStates.setValueAt(checkedIndex, newPos);
             }
         }
     }
 
+    /*
+        Moves the checked positions to follow an insert, remove or move of itemCount rows.
+        Checked rows that were removed are unchecked.
+     */
+    void remapCheckedPositions(int change, int fromPosition, int toPosition, int itemCount) {
+        SparseBooleanArray checkStates = new SparseBooleanArray();
+        for (int i = 0; i < mCheckStates.size(); i++) {
+            int position = remapPosition(mCheckStates.keyAt(i), change, fromPosition,
+                    toPosition, itemCount);
+            if (position != RecyclerView.NO_POSITION) {
+                checkStates.put(position, mCheckStates.valueAt(i));
+            }
+        }
+        mCheckStates = checkStates;
+
+        for (int i = mCheckedIdStates.size() - 1; i >= 0; i--) {
+            int position = remapPosition(mCheckedIdStates.valueAt(i), change, fromPosition,
+                    toPosition, itemCount);
+            if (position == RecyclerView.NO_POSITION) {
+                mCheckedIdStates.removeAt(i);
+            } else {
+                mCheckedIdStates.setValueAt(i, position);
+            }
+        }
+    }
+
+    static int remapPosition(int position, int change, int fromPosition, int toPosition,
+                             int itemCount) {
+        switch (change) {
+            case INSERTED:
+                return position >= fromPosition ? position + itemCount : position;
+            case REMOVED:
+                if (position < fromPosition) return position;
+                if (position < fromPosition + itemCount) return RecyclerView.NO_POSITION;
+                return position - itemCount;
+            case MOVED:
+                if (position >= fromPosition && position < fromPosition + itemCount) {
+                    return position - fromPosition + toPosition;
+                }
+                if (fromPosition < toPosition) {
+                    // The rows in between slide up to fill the gap.
+                    if (position >= fromPosition + itemCount && position < toPosition + itemCount) {
+                        return position - itemCount;
+                    }
+                } else if (position >= toPosition && position < fromPosition) {
+                    // The rows in between slide down to make room.
+                    return position + itemCount;
+                }
+                return position;
+            default:
+                return position;
+        }
+    }
+
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
         boolean checked = isItemChecked(position);
         if (vh.itemView instanceof Checkable) {
@@ -59,6 +59,7 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_history_key)));
 
 
         // If we are using a PlacePicker location, we need to show attributions.
@@ -77,16 +78,14 @@ public class SettingsActivity extends PreferenceActivity
     // Registers a shared preference change listener that gets notified when preferences change
     @Override
     protected void onResume() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
-        sp.registerOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.registerListener(this, this);
         super.onResume();
     }
 
     // Unregisters a shared preference change listener
     @Override
     protected void onPause() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
-        sp.unregisterOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.unregisterListener(this);
         super.onPause();
     }
 
@@ -156,10 +155,7 @@ public class SettingsActivity extends PreferenceActivity
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
-            SharedPreferences.Editor editor = sharedPreferences.edit();
-            editor.remove(getString(R.string.pref_location_latitude));
-            editor.remove(getString(R.string.pref_location_longitude));
-            editor.commit();
+            SettingsSnapshot.clearLocationLatLon(this);
 
             // Remove attributions for our any PlacePicker locations.
             if (mAttribution != null) {
@@ -203,19 +199,11 @@ public class SettingsActivity extends PreferenceActivity
                     address = String.format("(%.2f, %.2f)",latLong.latitude, latLong.longitude);
                 }
 
-                SharedPreferences sharedPreferences =
-                        PreferenceManager.getDefaultSharedPreferences(this);
-                SharedPreferences.Editor editor = sharedPreferences.edit();
-                editor.putString(getString(R.string.pref_location_key), address);
-
                 // Also store the latitude and longitude so that we can use these to get a precise
                 // result from our weather service. We cannot expect the weather service to
                 // understand addresses that Google formats.
-                editor.putFloat(getString(R.string.pref_location_latitude),
-                        (float) latLong.latitude);
-                editor.putFloat(getString(R.string.pref_location_longitude),
-                        (float) latLong.longitude);
-                editor.commit();
+                SettingsSnapshot.setPickedLocation(this, address,
+                        (float) latLong.latitude, (float) latLong.longitude);
 
                 // Tell the SyncAdapter that we've changed the location, so that we can update
                 // our UI with new values. We need to do this manually because we are responding
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The settings the rest of the app reads all the time, read once.  Looking up a preference
+ * means resolving its key from our resources and then looking it up in the preferences map,
+ * and formatTemperature alone used to do that twice for every temperature on screen.
+ *
+ * A snapshot never changes.  When a preference changes the current snapshot is thrown away,
+ * and the next call to get reads the preferences again.  So that nobody has to do that by hand,
+ * the preferences the app writes itself go through the setters here, and code that wants to
+ * hear about changes registers with registerListener, which only passes a change on once the
+ * snapshot has let go of the old value.
+ */
+public class SettingsSnapshot {
+
+    // Guarded by SettingsSnapshot.class, apart from reading sCurrent.
+    private static volatile SettingsSnapshot sCurrent;
+    private static long sGeneration;
+    // SharedPreferences only keeps a weak reference to its listeners, so we keep this one.
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+    private static final CopyOnWriteArrayList<SharedPreferences.OnSharedPreferenceChangeListener>
+            sListeners =
+            new CopyOnWriteArrayList<SharedPreferences.OnSharedPreferenceChangeListener>();
+
+    private final String mLocation;
+    private final boolean mLatLonAvailable;
+    private final float mLatitude;
+    private final float mLongitude;
+    private final boolean mMetric;
+    private final String mArtPack;
+    private final boolean mLocalGraphics;
+    private final int mHistoryDays;
+    private final int mLocationStatus;
+    private final boolean mNotificationsEnabled;
+
+    /**
+     * @return the current settings.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        if (null != current) return current;
+
+        final Context appContext = context.getApplicationContext();
+        SharedPreferences prefs = getPreferences(appContext);
+        long generation;
+        synchronized (SettingsSnapshot.class) {
+            generation = sGeneration;
+        }
+
+        SettingsSnapshot snapshot = new SettingsSnapshot(appContext, prefs);
+        synchronized (SettingsSnapshot.class) {
+            // Only keep it if nothing changed while we were reading.
+            if (generation == sGeneration) {
+                sCurrent = snapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Throws away the current snapshot.  Our listener does this for every preference change,
+     * and the setters below as soon as they've written, so this is only needed by code that
+     * writes the preferences behind our back, like tests.
+     */
+    public static synchronized void invalidate() {
+        sGeneration++;
+        sCurrent = null;
+    }
+
+    /**
+     * Registers a listener for preference changes.  Unlike registering with the preferences
+     * directly, the listener is only called once the snapshot has been thrown away, so it can
+     * read the new settings straight away.  Listeners are called on the main thread.
+     */
+    public static void registerListener(Context context,
+                                        SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        getPreferences(context.getApplicationContext());
+        sListeners.addIfAbsent(listener);
+    }
+
+    public static void unregisterListener(
+            SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * Sets the location status.  This is safe to call from any thread.
+     */
+    public static void setLocationStatus(Context context,
+                                         @SunshineSyncAdapter.LocationStatus int locationStatus) {
+        save(getPreferences(context).edit()
+                .putInt(context.getString(R.string.pref_location_status_key), locationStatus));
+    }
+
+    /**
+     * Sets the location to a place picked on the map.  We keep its coordinates as well, since
+     * the weather service can't be expected to understand addresses that Google formats.
+     */
+    public static void setPickedLocation(Context context, String address,
+                                         float latitude, float longitude) {
+        save(getPreferences(context).edit()
+                .putString(context.getString(R.string.pref_location_key), address)
+                .putFloat(context.getString(R.string.pref_location_latitude), latitude)
+                .putFloat(context.getString(R.string.pref_location_longitude), longitude));
+    }
+
+    /**
+     * Forgets the coordinates of a picked place, so the location is looked up by its text.
+     */
+    public static void clearLocationLatLon(Context context) {
+        save(getPreferences(context).edit()
+                .remove(context.getString(R.string.pref_location_latitude))
+                .remove(context.getString(R.string.pref_location_longitude)));
+    }
+
+    /*
+        apply changes the preferences in memory before it returns, and only leaves the disk
+        write for later, so once it has returned the next snapshot will see the change.
+     */
+    private static void save(SharedPreferences.Editor editor) {
+        editor.apply();
+        invalidate();
+    }
+
+    /*
+        The default preferences, with our listener registered on them.
+     */
+    private static SharedPreferences getPreferences(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        synchronized (SettingsSnapshot.class) {
+            if (null == sListener) {
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        invalidate();
+                        for (SharedPreferences.OnSharedPreferenceChangeListener listener
+                                : sListeners) {
+                            listener.onSharedPreferenceChanged(sharedPreferences, key);
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+            }
+        }
+        return prefs;
+    }
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        mLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String latitudeKey = context.getString(R.string.pref_location_latitude);
+        String longitudeKey = context.getString(R.string.pref_location_longitude);
+        mLatLonAvailable = prefs.contains(latitudeKey) && prefs.contains(longitudeKey);
+        mLatitude = prefs.getFloat(latitudeKey, Utility.DEFAULT_LATLONG);
+        mLongitude = prefs.getFloat(longitudeKey, Utility.DEFAULT_LATLONG);
+
+        String metric = context.getString(R.string.pref_units_metric);
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key), metric)
+                .equals(metric);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        mArtPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        mLocalGraphics = mArtPack.equals(sunshineArtPack);
+
+        mHistoryDays = Integer.parseInt(prefs.getString(
+                context.getString(R.string.pref_history_key),
+                context.getString(R.string.pref_history_month)));
+
+        mLocationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+
+        mNotificationsEnabled = prefs.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(
+                        context.getString(R.string.pref_enable_notifications_default)));
+    }
+
+    public String getPreferredLocation() {
+        return mLocation;
+    }
+
+    public boolean isLocationLatLonAvailable() {
+        return mLatLonAvailable;
+    }
+
+    public float getLocationLatitude() {
+        return mLatitude;
+    }
+
+    public float getLocationLongitude() {
+        return mLongitude;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the art pack's URL format, which is the Sunshine art pack's if we're using the
+     * local graphics.
+     */
+    public String getArtPack() {
+        return mArtPack;
+    }
+
+    public boolean usingLocalGraphics() {
+        return mLocalGraphics;
+    }
+
+    /**
+     * @return how many days of past forecasts to keep day by day, before they're boiled down
+     * to weekly summaries.
+     */
+    public int getHistoryDays() {
+        return mHistoryDays;
+    }
+
+    @SuppressWarnings("ResourceType")
+    @SunshineSyncAdapter.LocationStatus
+    public int getLocationStatus() {
+        return mLocationStatus;
+    }
+
+    public boolean isNotificationsEnabled() {
+        return mNotificationsEnabled;
+    }
+}
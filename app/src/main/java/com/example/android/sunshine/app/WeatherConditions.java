@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Locale;
+
+/**
+ * Everything we show for an OpenWeatherMap condition id, in tables indexed by the id.  The
+ * Utility helpers used to work this out with a chain of range checks (or a long switch) on
+ * every call, and they're called several times for every list row, widget row and
+ * notification.  Here it's one array lookup.
+ *
+ * Condition ids are all below 1000.  Anything else has no icon, art or description, just
+ * like before.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public class WeatherConditions {
+
+    static final int MAX_CONDITION_ID = 1000;
+
+    // The kinds of weather we have a picture for.  Conditions in the same bucket share their
+    // icon, art and photo.
+    public static final int BUCKET_NONE = 0;
+    public static final int BUCKET_STORM = 1;
+    public static final int BUCKET_LIGHT_RAIN = 2;
+    public static final int BUCKET_RAIN = 3;
+    public static final int BUCKET_SNOW = 4;
+    public static final int BUCKET_FOG = 5;
+    public static final int BUCKET_CLEAR = 6;
+    public static final int BUCKET_LIGHT_CLOUDS = 7;
+    public static final int BUCKET_CLOUDS = 8;
+    // Tornadoes look like storms, but Muzei has always shown them a photo of their own.
+    public static final int BUCKET_TORNADO = 9;
+    private static final int BUCKET_COUNT = 10;
+
+    // These are all indexed by bucket.
+    private static final int[] sIcons = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy,
+            R.drawable.ic_storm
+    };
+
+    private static final int[] sArt = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds,
+            R.drawable.art_storm
+    };
+
+    // What goes into an art pack's URL format.
+    private static final String[] sArtNames = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "clear",
+            "light_clouds",
+            "clouds",
+            "storm"
+    };
+
+    private static final String[] sImageUrls = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg"
+    };
+
+    // Indexed by condition id.
+    private static final byte[] sBuckets = new byte[MAX_CONDITION_ID];
+    private static final int[] sDescriptions = new int[MAX_CONDITION_ID];
+
+    // The art URLs for the art pack we were last asked about, indexed by bucket.  Art packs
+    // hardly ever change, so this saves formatting the same URLs over and over.
+    private static class ArtUrls {
+        final String mArtPack;
+        final String[] mUrls = new String[BUCKET_COUNT];
+
+        ArtUrls(String artPack) {
+            mArtPack = artPack;
+            for (int bucket = 1; bucket < BUCKET_COUNT; bucket++) {
+                mUrls[bucket] = String.format(Locale.US, artPack, sArtNames[bucket]);
+            }
+        }
+    }
+
+    private static volatile ArtUrls sArtUrls;
+
+    static {
+        // The same ranges the old checks used.  Those checked for 761 as a storm only after
+        // 701 to 761 as fog, so 761 has always been fog and we keep it that way.
+        setBucket(200, 232, BUCKET_STORM);
+        setBucket(300, 321, BUCKET_LIGHT_RAIN);
+        setBucket(500, 504, BUCKET_RAIN);
+        setBucket(511, 511, BUCKET_SNOW);
+        setBucket(520, 531, BUCKET_RAIN);
+        setBucket(600, 622, BUCKET_SNOW);
+        setBucket(701, 761, BUCKET_FOG);
+        setBucket(781, 781, BUCKET_TORNADO);
+        setBucket(800, 800, BUCKET_CLEAR);
+        setBucket(801, 801, BUCKET_LIGHT_CLOUDS);
+        setBucket(802, 804, BUCKET_CLOUDS);
+
+        for (int id = 200; id <= 232; id++) {
+            sDescriptions[id] = R.string.condition_2xx;
+        }
+        for (int id = 300; id <= 321; id++) {
+            sDescriptions[id] = R.string.condition_3xx;
+        }
+        sDescriptions[500] = R.string.condition_500;
+        sDescriptions[501] = R.string.condition_501;
+        sDescriptions[502] = R.string.condition_502;
+        sDescriptions[503] = R.string.condition_503;
+        sDescriptions[504] = R.string.condition_504;
+        sDescriptions[511] = R.string.condition_511;
+        sDescriptions[520] = R.string.condition_520;
+        sDescriptions[531] = R.string.condition_531;
+        sDescriptions[600] = R.string.condition_600;
+        sDescriptions[601] = R.string.condition_601;
+        sDescriptions[602] = R.string.condition_602;
+        sDescriptions[611] = R.string.condition_611;
+        sDescriptions[612] = R.string.condition_612;
+        sDescriptions[615] = R.string.condition_615;
+        sDescriptions[616] = R.string.condition_616;
+        sDescriptions[620] = R.string.condition_620;
+        sDescriptions[621] = R.string.condition_621;
+        sDescriptions[622] = R.string.condition_622;
+        sDescriptions[701] = R.string.condition_701;
+        sDescriptions[711] = R.string.condition_711;
+        sDescriptions[721] = R.string.condition_721;
+        sDescriptions[731] = R.string.condition_731;
+        sDescriptions[741] = R.string.condition_741;
+        sDescriptions[751] = R.string.condition_751;
+        sDescriptions[761] = R.string.condition_761;
+        sDescriptions[762] = R.string.condition_762;
+        sDescriptions[771] = R.string.condition_771;
+        sDescriptions[781] = R.string.condition_781;
+        sDescriptions[800] = R.string.condition_800;
+        sDescriptions[801] = R.string.condition_801;
+        sDescriptions[802] = R.string.condition_802;
+        sDescriptions[803] = R.string.condition_803;
+        sDescriptions[804] = R.string.condition_804;
+        sDescriptions[900] = R.string.condition_900;
+        sDescriptions[901] = R.string.condition_901;
+        sDescriptions[902] = R.string.condition_902;
+        sDescriptions[903] = R.string.condition_903;
+        sDescriptions[904] = R.string.condition_904;
+        sDescriptions[905] = R.string.condition_905;
+        sDescriptions[906] = R.string.condition_906;
+        sDescriptions[951] = R.string.condition_951;
+        sDescriptions[952] = R.string.condition_952;
+        sDescriptions[953] = R.string.condition_953;
+        sDescriptions[954] = R.string.condition_954;
+        sDescriptions[955] = R.string.condition_955;
+        sDescriptions[956] = R.string.condition_956;
+        sDescriptions[957] = R.string.condition_957;
+        sDescriptions[958] = R.string.condition_958;
+        sDescriptions[959] = R.string.condition_959;
+        sDescriptions[960] = R.string.condition_960;
+        sDescriptions[961] = R.string.condition_961;
+        sDescriptions[962] = R.string.condition_962;
+    }
+
+    private static void setBucket(int firstId, int lastId, int bucket) {
+        for (int id = firstId; id <= lastId; id++) {
+            sBuckets[id] = (byte) bucket;
+        }
+    }
+
+    /**
+     * @return which BUCKET_ the condition's pictures come from, or BUCKET_NONE if we don't
+     * have any for it.
+     */
+    public static int getBucket(int weatherId) {
+        return weatherId < 0 || weatherId >= MAX_CONDITION_ID ? BUCKET_NONE : sBuckets[weatherId];
+    }
+
+    /**
+     * @return the icon resource, or -1 if there isn't one.
+     */
+    public static int getIconResource(int weatherId) {
+        return sIcons[getBucket(weatherId)];
+    }
+
+    /**
+     * @return the art resource, or -1 if there isn't one.
+     */
+    public static int getArtResource(int weatherId) {
+        return sArt[getBucket(weatherId)];
+    }
+
+    /**
+     * @param artPack The art pack's URL format.
+     * @return the art URL in the art pack, or null if there isn't one.
+     */
+    public static String getArtUrl(String artPack, int weatherId) {
+        ArtUrls artUrls = sArtUrls;
+        if (null == artUrls || !artUrls.mArtPack.equals(artPack)) {
+            artUrls = new ArtUrls(artPack);
+            sArtUrls = artUrls;
+        }
+        return artUrls.mUrls[getBucket(weatherId)];
+    }
+
+    /**
+     * @return the photo URL, or null if there isn't one.
+     */
+    public static String getImageUrl(int weatherId) {
+        return sImageUrls[getBucket(weatherId)];
+    }
+
+    /**
+     * @return the description's string resource, or 0 if there isn't one.
+     */
+    public static int getDescriptionResource(int weatherId) {
+        return weatherId < 0 || weatherId >= MAX_CONDITION_ID ? 0 : sDescriptions[weatherId];
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects WeatherProvider's change notifications for a short window and then sends each
+ * changed URI once.  Every notification wakes every loader and widget watching that data, and
+ * each of them requeries, so a sync that writes in several steps used to make them all
+ * requery several times.
+ *
+ * A notification for a URI also reaches everybody watching the URIs below it, so when both
+ * weather and weather/94043 have changed, only weather is sent.
+ */
+public class ChangeNotifier {
+
+    // Long enough to gather up the separate writes of one sync, short enough that nobody
+    // looking at the screen will notice.
+    static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Guarded by this.
+    private final Set<Uri> mPending = new LinkedHashSet<Uri>();
+    private boolean mFlushScheduled;
+    private long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+
+    private final AtomicLong mRequested = new AtomicLong();
+    private final AtomicLong mDelivered = new AtomicLong();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ChangeNotifier(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Schedules a change notification for the URI, to go out at the end of the current
+     * window along with any others.
+     */
+    void notifyChange(Uri uri) {
+        mRequested.incrementAndGet();
+        synchronized (this) {
+            mPending.add(uri);
+            if (mFlushScheduled) return;
+            if (mWindowMillis > 0) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlush, mWindowMillis);
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Sends everything that's waiting now.
+     */
+    void flush() {
+        List<Uri> uris;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlush);
+            uris = collapse(mPending);
+            mPending.clear();
+            mFlushScheduled = false;
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+            mDelivered.incrementAndGet();
+        }
+    }
+
+    /*
+        Drops every URI that one of the others already covers.
+     */
+    static List<Uri> collapse(Set<Uri> uris) {
+        List<Uri> collapsed = new ArrayList<Uri>(uris.size());
+        for (Uri uri : uris) {
+            boolean covered = false;
+            for (Uri other : uris) {
+                if (other != uri && isAncestor(other, uri)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                collapsed.add(uri);
+            }
+        }
+        return collapsed;
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        if (!ancestor.getAuthority().equals(uri.getAuthority())) return false;
+        List<String> ancestorPath = ancestor.getPathSegments();
+        List<String> path = uri.getPathSegments();
+        return ancestorPath.size() < path.size()
+                && ancestorPath.equals(path.subList(0, ancestorPath.size()));
+    }
+
+    /**
+     * @param windowMillis How long to collect notifications for, or 0 to send each one
+     *                     straight away.
+     */
+    public synchronized void setWindowMillis(long windowMillis) {
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * @return how many change notifications the provider has asked for.
+     */
+    public long getRequestedCount() {
+        return mRequested.get();
+    }
+
+    /**
+     * @return how many change notifications have actually been sent.
+     */
+    public long getDeliveredCount() {
+        return mDelivered.get();
+    }
+
+    @Override
+    public String toString() {
+        return "requested " + mRequested.get() + ", delivered " + mDelivered.get();
+    }
+}
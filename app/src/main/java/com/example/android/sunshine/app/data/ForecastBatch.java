@@ -0,0 +1,448 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Forecasts on their way from the parser to the database, kept a column at a time in plain
+ * arrays.  A ContentValues per day means a HashMap, and a boxed Double or Integer for every
+ * value in it, all of which is thrown away the moment the row is written.  Here a day is just
+ * one more entry in each array, and a description that repeats day after day ("Rain", "Clear")
+ * is only held once.
+ *
+ * It can also carry the 3 hour forecast, as slots.  These are kept the way
+ * {@link WeatherContract.HourlyEntry} stores them: a slot number and whole tenths, all ints.
+ *
+ * A batch can hold several locations.  Each location is identified by its location setting,
+ * and each day and slot belongs to one of them.  {@link WeatherProvider#storeForecasts} writes
+ * the whole thing, inserting any location the database doesn't have yet.
+ *
+ * Not thread safe.  Each fetch fills its own batch, and the sync adapter adds them all into
+ * one on the sync thread.
+ */
+public class ForecastBatch {
+
+    private static final int DEFAULT_DAYS = 16;
+
+    // Locations.
+    private int mLocationCount;
+    private String[] mLocationSettings = new String[1];
+    private String[] mCityNames = new String[1];
+    private double[] mLatitudes = new double[1];
+    private double[] mLongitudes = new double[1];
+
+    // Days.
+    private int mDayCount;
+    private int[] mDayLocations;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private int[] mDescriptionIndexes;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private int[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    // 3 hour slots.
+    private int mSlotCount;
+    private int[] mSlotLocations = new int[0];
+    private int[] mSlots = new int[0];
+    private int[] mSlotWeatherIds = new int[0];
+    private int[] mSlotTemps = new int[0];
+    private int[] mSlotHumidities = new int[0];
+    private int[] mSlotPressures = new int[0];
+    private int[] mSlotWindSpeeds = new int[0];
+    private int[] mSlotDegrees = new int[0];
+
+    // Every distinct description in the batch, which the days refer to by index.
+    private final ArrayList<String> mDescriptions = new ArrayList<String>();
+
+    // Filled in by the provider once the batch has been stored.
+    private long mStaleBefore;
+    private int mRowsWritten;
+    private int mRowsDeleted;
+
+    public ForecastBatch() {
+        this(DEFAULT_DAYS);
+    }
+
+    public ForecastBatch(int days) {
+        this(days, 0);
+    }
+
+    /**
+     * @param days How many days to make room for up front.  The batch grows if it needs to.
+     * @param slots The same, for 3 hour slots.
+     */
+    public ForecastBatch(int days, int slots) {
+        days = Math.max(1, days);
+        mDayLocations = new int[days];
+        mDates = new long[days];
+        mWeatherIds = new int[days];
+        mDescriptionIndexes = new int[days];
+        mMinTemps = new double[days];
+        mMaxTemps = new double[days];
+        mHumidities = new int[days];
+        mPressures = new double[days];
+        mWindSpeeds = new double[days];
+        mDegrees = new double[days];
+        if (slots > 0) {
+            growSlots(slots);
+        }
+    }
+
+    /**
+     * Adds a location to the batch.  The city can be filled in later with {@link #setCity},
+     * since nothing guarantees it arrives before the forecast does.
+     *
+     * @return the location's index in the batch, for {@link #addDay} and {@link #addSlot}.
+     */
+    public int addLocation(String locationSetting) {
+        if (mLocationCount == mLocationSettings.length) {
+            int capacity = mLocationCount * 2;
+            mLocationSettings = Arrays.copyOf(mLocationSettings, capacity);
+            mCityNames = Arrays.copyOf(mCityNames, capacity);
+            mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+            mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+        }
+        mLocationSettings[mLocationCount] = locationSetting;
+        return mLocationCount++;
+    }
+
+    /**
+     * Sets what the server told us about a location's city, which is what gets stored if the
+     * database doesn't have the location yet.
+     */
+    public void setCity(int location, String cityName, double latitude, double longitude) {
+        mCityNames[location] = cityName;
+        mLatitudes[location] = latitude;
+        mLongitudes[location] = longitude;
+    }
+
+    /**
+     * Adds a day of weather for one of the batch's locations.
+     *
+     * @return the day's index in the batch.
+     */
+    public int addDay(int location, long date, int weatherId, String description,
+                      double minTemp, double maxTemp, int humidity, double pressure,
+                      double windSpeed, double degrees) {
+        if (location < 0 || location >= mLocationCount) {
+            throw new IllegalArgumentException("Unknown location: " + location);
+        }
+        if (mDayCount == mDates.length) {
+            grow(mDayCount * 2);
+        }
+        int day = mDayCount++;
+        mDayLocations[day] = location;
+        mDates[day] = date;
+        mWeatherIds[day] = weatherId;
+        mDescriptionIndexes[day] = indexOfDescription(description);
+        mMinTemps[day] = minTemp;
+        mMaxTemps[day] = maxTemp;
+        mHumidities[day] = humidity;
+        mPressures[day] = pressure;
+        mWindSpeeds[day] = windSpeed;
+        mDegrees[day] = degrees;
+        return day;
+    }
+
+    /**
+     * Adds a 3 hour slot of weather for one of the batch's locations.
+     *
+     * @param time Any time in the slot, in milliseconds since the epoch.
+     * @return the slot's index in the batch.
+     */
+    public int addSlot(int location, long time, int weatherId, double temp, int humidity,
+                       double pressure, double windSpeed, double degrees) {
+        if (location < 0 || location >= mLocationCount) {
+            throw new IllegalArgumentException("Unknown location: " + location);
+        }
+        if (mSlotCount == mSlots.length) {
+            growSlots(Math.max(8, mSlotCount * 2));
+        }
+        int slot = mSlotCount++;
+        mSlotLocations[slot] = location;
+        mSlots[slot] = WeatherContract.HourlyEntry.getSlot(time);
+        mSlotWeatherIds[slot] = weatherId;
+        mSlotTemps[slot] = WeatherContract.HourlyEntry.toTenths(temp);
+        mSlotHumidities[slot] = humidity;
+        mSlotPressures[slot] = WeatherContract.HourlyEntry.toTenths(pressure);
+        mSlotWindSpeeds[slot] = WeatherContract.HourlyEntry.toTenths(windSpeed);
+        mSlotDegrees[slot] = (int) Math.round(degrees);
+        return slot;
+    }
+
+    /**
+     * Adds all of another batch's locations, days and slots to this one.  A location this
+     * batch already has is shared, rather than added twice, so the daily and 3 hour forecasts
+     * for a place can arrive in separate batches.
+     */
+    public void addAll(ForecastBatch other) {
+        int[] locations = new int[other.mLocationCount];
+        for (int i = 0; i < other.mLocationCount; i++) {
+            int location = indexOfLocation(other.mLocationSettings[i]);
+            if (location < 0) {
+                location = addLocation(other.mLocationSettings[i]);
+            }
+            if (null == mCityNames[location]) {
+                setCity(location, other.mCityNames[i], other.mLatitudes[i],
+                        other.mLongitudes[i]);
+            }
+            locations[i] = location;
+        }
+
+        // Descriptions get new indexes here, but there are only ever a handful of them.
+        int[] descriptionIndexes = new int[other.mDescriptions.size()];
+        for (int i = 0; i < descriptionIndexes.length; i++) {
+            descriptionIndexes[i] = indexOfDescription(other.mDescriptions.get(i));
+        }
+
+        if (mDayCount + other.mDayCount > mDates.length) {
+            grow(Math.max(mDayCount + other.mDayCount, mDates.length * 2));
+        }
+        int count = other.mDayCount;
+        System.arraycopy(other.mDates, 0, mDates, mDayCount, count);
+        System.arraycopy(other.mWeatherIds, 0, mWeatherIds, mDayCount, count);
+        System.arraycopy(other.mMinTemps, 0, mMinTemps, mDayCount, count);
+        System.arraycopy(other.mMaxTemps, 0, mMaxTemps, mDayCount, count);
+        System.arraycopy(other.mHumidities, 0, mHumidities, mDayCount, count);
+        System.arraycopy(other.mPressures, 0, mPressures, mDayCount, count);
+        System.arraycopy(other.mWindSpeeds, 0, mWindSpeeds, mDayCount, count);
+        System.arraycopy(other.mDegrees, 0, mDegrees, mDayCount, count);
+        for (int i = 0; i < count; i++) {
+            mDayLocations[mDayCount + i] = locations[other.mDayLocations[i]];
+            mDescriptionIndexes[mDayCount + i] = descriptionIndexes[other.mDescriptionIndexes[i]];
+        }
+        mDayCount += count;
+
+        if (mSlotCount + other.mSlotCount > mSlots.length) {
+            growSlots(Math.max(mSlotCount + other.mSlotCount, mSlots.length * 2));
+        }
+        count = other.mSlotCount;
+        System.arraycopy(other.mSlots, 0, mSlots, mSlotCount, count);
+        System.arraycopy(other.mSlotWeatherIds, 0, mSlotWeatherIds, mSlotCount, count);
+        System.arraycopy(other.mSlotTemps, 0, mSlotTemps, mSlotCount, count);
+        System.arraycopy(other.mSlotHumidities, 0, mSlotHumidities, mSlotCount, count);
+        System.arraycopy(other.mSlotPressures, 0, mSlotPressures, mSlotCount, count);
+        System.arraycopy(other.mSlotWindSpeeds, 0, mSlotWindSpeeds, mSlotCount, count);
+        System.arraycopy(other.mSlotDegrees, 0, mSlotDegrees, mSlotCount, count);
+        for (int i = 0; i < count; i++) {
+            mSlotLocations[mSlotCount + i] = locations[other.mSlotLocations[i]];
+        }
+        mSlotCount += count;
+    }
+
+    private int indexOfLocation(String locationSetting) {
+        for (int i = 0; i < mLocationCount; i++) {
+            if (mLocationSettings[i].equals(locationSetting)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void grow(int capacity) {
+        mDayLocations = Arrays.copyOf(mDayLocations, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mDescriptionIndexes = Arrays.copyOf(mDescriptionIndexes, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    private void growSlots(int capacity) {
+        mSlotLocations = Arrays.copyOf(mSlotLocations, capacity);
+        mSlots = Arrays.copyOf(mSlots, capacity);
+        mSlotWeatherIds = Arrays.copyOf(mSlotWeatherIds, capacity);
+        mSlotTemps = Arrays.copyOf(mSlotTemps, capacity);
+        mSlotHumidities = Arrays.copyOf(mSlotHumidities, capacity);
+        mSlotPressures = Arrays.copyOf(mSlotPressures, capacity);
+        mSlotWindSpeeds = Arrays.copyOf(mSlotWindSpeeds, capacity);
+        mSlotDegrees = Arrays.copyOf(mSlotDegrees, capacity);
+    }
+
+    /*
+        OpenWeatherMap only has a dozen or so of these, so a straight search beats hashing.
+     */
+    private int indexOfDescription(String description) {
+        for (int i = 0; i < mDescriptions.size(); i++) {
+            String known = mDescriptions.get(i);
+            if (known == null ? description == null : known.equals(description)) {
+                return i;
+            }
+        }
+        mDescriptions.add(description);
+        return mDescriptions.size() - 1;
+    }
+
+    public int getLocationCount() {
+        return mLocationCount;
+    }
+
+    public String getLocationSetting(int location) {
+        return mLocationSettings[location];
+    }
+
+    public String getCityName(int location) {
+        return mCityNames[location];
+    }
+
+    public double getLatitude(int location) {
+        return mLatitudes[location];
+    }
+
+    public double getLongitude(int location) {
+        return mLongitudes[location];
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    /**
+     * @return the index of the location the day belongs to.
+     */
+    public int getDayLocation(int day) {
+        return mDayLocations[day];
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public String getDescription(int day) {
+        return mDescriptions.get(mDescriptionIndexes[day]);
+    }
+
+    public double getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+
+    public double getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    public int getHumidity(int day) {
+        return mHumidities[day];
+    }
+
+    public double getPressure(int day) {
+        return mPressures[day];
+    }
+
+    public double getWindSpeed(int day) {
+        return mWindSpeeds[day];
+    }
+
+    public double getDegrees(int day) {
+        return mDegrees[day];
+    }
+
+    public int getSlotCount() {
+        return mSlotCount;
+    }
+
+    /**
+     * @return the index of the location the slot belongs to.
+     */
+    public int getSlotLocation(int slot) {
+        return mSlotLocations[slot];
+    }
+
+    /**
+     * The rest of the slot getters return values as HourlyEntry stores them.
+     */
+    public int getSlot(int slot) {
+        return mSlots[slot];
+    }
+
+    public int getSlotWeatherId(int slot) {
+        return mSlotWeatherIds[slot];
+    }
+
+    public int getSlotTemp(int slot) {
+        return mSlotTemps[slot];
+    }
+
+    public int getSlotHumidity(int slot) {
+        return mSlotHumidities[slot];
+    }
+
+    public int getSlotPressure(int slot) {
+        return mSlotPressures[slot];
+    }
+
+    public int getSlotWindSpeed(int slot) {
+        return mSlotWindSpeeds[slot];
+    }
+
+    public int getSlotDegrees(int slot) {
+        return mSlotDegrees[slot];
+    }
+
+    /**
+     * Has the provider delete every slot that ended at or before the given time, in
+     * milliseconds since the epoch, for all locations, in the same transaction that stores the
+     * batch.  The slot the time falls in is kept.  0, the default, deletes nothing.
+     *
+     * Days are never deleted here.  Past days are history, which is kept until
+     * {@link WeatherProvider#compactHistory} folds them into weekly summaries.
+     */
+    public void setStaleBefore(long date) {
+        mStaleBefore = date;
+    }
+
+    public long getStaleBefore() {
+        return mStaleBefore;
+    }
+
+    void setStored(int rowsWritten, int rowsDeleted) {
+        mRowsWritten = rowsWritten;
+        mRowsDeleted = rowsDeleted;
+    }
+
+    /**
+     * @return how many days and slots the provider wrote, once the batch has been stored.
+     */
+    public int getRowsWritten() {
+        return mRowsWritten;
+    }
+
+    /**
+     * @return how many stale slots the provider deleted, once the batch has been stored.
+     */
+    public int getRowsDeleted() {
+        return mRowsDeleted;
+    }
+
+    @Override
+    public String toString() {
+        return "ForecastBatch{" + mLocationCount + " locations, " + mDayCount + " days, " +
+                mSlotCount + " slots, " + mDescriptions.size() + " descriptions}";
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps copies of recent forecast query results in memory.  Right after a sync the forecast
+ * list, the detail view, both widgets, Muzei and the notification all ask for the same handful
+ * of rows, and only the first of them needs to go to disk.
+ *
+ * Every write to the database empties the cache.  A query that was already running when the
+ * write happened may have read the old rows, so its result is only kept if nothing has been
+ * written since it started.
+ */
+public class ForecastQueryCache {
+
+    // Enough for the list, today and a couple of other days for a few locations.
+    private static final int MAX_ENTRIES = 32;
+
+    // Bigger results aren't what this cache is for, and would crowd everything else out.
+    private static final int MAX_ROWS = 64;
+
+    private final LruCache<String, Snapshot> mCache = new LruCache<String, Snapshot>(MAX_ENTRIES);
+
+    // Bumped on every write.  Guarded by this.
+    private long mGeneration;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /*
+        The rows of a query, copied out of the cursor with their SQLite types intact.
+     */
+    private static class Snapshot {
+        final String[] mColumnNames;
+        final Object[][] mRows;
+
+        Snapshot(String[] columnNames, Object[][] rows) {
+            mColumnNames = columnNames;
+            mRows = rows;
+        }
+
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(mColumnNames, mRows.length);
+            for (Object[] row : mRows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+
+    static String buildKey(Uri uri, String[] projection, String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+    }
+
+    /**
+     * @return a fresh cursor over the cached rows for the key, or null if we don't have them.
+     */
+    Cursor get(String key) {
+        Snapshot snapshot = mCache.get(key);
+        if (null == snapshot) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return snapshot.toCursor();
+    }
+
+    /**
+     * Call before running a query whose result might be put in the cache.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the cursor's rows into the cache, unless the database has been written to since
+     * generation was read.  Leaves the cursor before its first row.
+     */
+    void put(String key, long generation, Cursor cursor) {
+        // Copying rows with their types needs Cursor.getType.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+        if (cursor.getCount() > MAX_ROWS) return;
+
+        Snapshot snapshot = snapshot(cursor);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mCache.put(key, snapshot);
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Snapshot snapshot(Cursor cursor) {
+        int columnCount = cursor.getColumnCount();
+        Object[][] rows = new Object[cursor.getCount()][];
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            Object[] row = new Object[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[column] = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[column] = cursor.getDouble(column);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[column] = cursor.getString(column);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[column] = cursor.getBlob(column);
+                        break;
+                    default:
+                        row[column] = null;
+                        break;
+                }
+            }
+            rows[i] = row;
+        }
+        cursor.moveToPosition(-1);
+        return new Snapshot(cursor.getColumnNames(), rows);
+    }
+
+    /**
+     * Forgets everything.  Call after every write, before telling anybody about it.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "hits " + mHits.get() + ", misses " + mMisses.get();
+    }
+}
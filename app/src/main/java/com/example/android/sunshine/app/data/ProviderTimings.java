@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps count of how long WeatherProvider's operations take, and how many rows they touch,
+ * for each kind of operation and URI.
+ *
+ * A query's time runs until its first window of rows has been read, so it includes any time
+ * spent waiting for a database connection.  That's where loaders used to stall behind a sync
+ * transaction, so a jump in the slow end of the histogram here is the first thing to look for.
+ *
+ * Averages hide exactly the stalls we care about, so each operation also gets a histogram of
+ * its times.  The buckets are powers of two, each split into SUB_BUCKETS equal parts, so any
+ * time is only ever reported up to a quarter too high, and the whole range from nanoseconds
+ * to minutes fits in a few hundred counters.  Percentiles come from the histogram.
+ *
+ * Every thread using the provider updates these at once, so the counters are atomic rather
+ * than locked.  Timing is on by default in debug builds only; it's cheap, but not free.
+ */
+public class ProviderTimings {
+
+    // The operations we time.
+    public static final int OP_QUERY = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_UPDATE = 2;
+    public static final int OP_DELETE = 3;
+    public static final int OP_BULK_INSERT = 4;
+    private static final int OP_COUNT = 5;
+
+    private static final String[] OP_NAMES = {"query", "insert", "update", "delete", "bulkInsert"};
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough for any positive long.
+    static final int BUCKET_COUNT = 64 * SUB_BUCKETS;
+
+    /*
+        Everything we know about one operation on one kind of URI.
+     */
+    private static class Stats {
+        final AtomicLong mCount = new AtomicLong();
+        final AtomicLong mTotalNanos = new AtomicLong();
+        final AtomicLong mMaxNanos = new AtomicLong();
+        final AtomicLong mRows = new AtomicLong();
+        final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+        void reset() {
+            mCount.set(0);
+            mTotalNanos.set(0);
+            mMaxNanos.set(0);
+            mRows.set(0);
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+        }
+    }
+
+    private final int[] mMatches;
+    // Indexed by operation, then by the match's place in mMatches.
+    private final Stats[] mStats;
+    private volatile boolean mEnabled;
+
+    /**
+     * @param enabled Whether to start out timing.
+     * @param matches The UriMatcher codes to keep timings for.
+     */
+    ProviderTimings(boolean enabled, int... matches) {
+        mEnabled = enabled;
+        mMatches = matches;
+        mStats = new Stats[OP_COUNT * matches.length];
+        for (int i = 0; i < mStats.length; i++) {
+            mStats[i] = new Stats();
+        }
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Turns timing on or off.  What's been recorded so far is kept either way.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    private Stats getStats(int operation, int match) {
+        if (operation < 0 || operation >= OP_COUNT) return null;
+        for (int i = 0; i < mMatches.length; i++) {
+            if (mMatches[i] == match) return mStats[operation * mMatches.length + i];
+        }
+        return null;
+    }
+
+    /**
+     * @return the histogram bucket a time falls in.
+     */
+    static int getBucket(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) Math.max(nanos, 0);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the longest time that falls in the bucket.
+     */
+    static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucketWidth = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowerBound = (1L << exponent) + (bucket % SUB_BUCKETS) * subBucketWidth;
+        return lowerBound + subBucketWidth - 1;
+    }
+
+    /**
+     * @param rows How many rows the operation returned, wrote or deleted.
+     */
+    void record(int operation, int match, long nanos, long rows) {
+        if (!mEnabled) return;
+        Stats stats = getStats(operation, match);
+        if (null == stats) return;
+
+        stats.mCount.incrementAndGet();
+        stats.mTotalNanos.addAndGet(nanos);
+        stats.mRows.addAndGet(rows);
+        stats.mBuckets.incrementAndGet(getBucket(nanos));
+        long max;
+        do {
+            max = stats.mMaxNanos.get();
+        } while (nanos > max && !stats.mMaxNanos.compareAndSet(max, nanos));
+    }
+
+    public long getCount(int operation, int match) {
+        Stats stats = getStats(operation, match);
+        return null == stats ? 0 : stats.mCount.get();
+    }
+
+    public long getRowCount(int operation, int match) {
+        Stats stats = getStats(operation, match);
+        return null == stats ? 0 : stats.mRows.get();
+    }
+
+    public long getTotalMillis(int operation, int match) {
+        Stats stats = getStats(operation, match);
+        return null == stats ? 0 : stats.mTotalNanos.get() / 1000000;
+    }
+
+    public long getMaxMillis(int operation, int match) {
+        Stats stats = getStats(operation, match);
+        return null == stats ? 0 : stats.mMaxNanos.get() / 1000000;
+    }
+
+    /**
+     * @param percentile From 0 to 100, so 99 for the p99.
+     * @return the time that percentile of the operations took no longer than, rounded up to
+     * the end of its bucket (but never past the longest we've seen), or 0 if there were none.
+     */
+    public long getPercentileNanos(int operation, int match, double percentile) {
+        Stats stats = getStats(operation, match);
+        if (null == stats) return 0;
+
+        // The buckets keep changing while we read them, so count them up ourselves rather
+        // than trusting mCount to agree.
+        long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = stats.mBuckets.get(i);
+            count += buckets[i];
+        }
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(i), stats.mMaxNanos.get());
+            }
+        }
+        return stats.mMaxNanos.get();
+    }
+
+    public void reset() {
+        for (Stats stats : mStats) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * @return a line for every operation on every kind of URI that has happened, with its
+     * count, rows, average and percentiles, for logs and tests.
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (int operation = 0; operation < OP_COUNT; operation++) {
+            for (int match : mMatches) {
+                Stats stats = getStats(operation, match);
+                long count = stats.mCount.get();
+                if (count == 0) continue;
+                builder.append(String.format(Locale.US,
+                        "%s %d: %d calls, %d rows, avg %dus, p50 %dus, p90 %dus, p99 %dus, " +
+                                "max %dus\n",
+                        OP_NAMES[operation], match, count, stats.mRows.get(),
+                        stats.mTotalNanos.get() / count / 1000,
+                        getPercentileNanos(operation, match, 50) / 1000,
+                        getPercentileNanos(operation, match, 90) / 1000,
+                        getPercentileNanos(operation, match, 99) / 1000,
+                        stats.mMaxNanos.get() / 1000));
+            }
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+}
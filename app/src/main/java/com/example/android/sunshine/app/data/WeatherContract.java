@@ -43,12 +43,19 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_WEEKLY = "weekly";
+    public static final String PATH_SYNC_TELEMETRY = "sync_telemetry";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    // The same, but reusing the caller's Time, for when there are a lot of dates to normalize.
+    static long normalizeDate(long startDate, Time time) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -99,6 +106,10 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Query parameter asking bulkInsert to update the days we already have in place,
+        // instead of letting the UNIQUE constraint delete and re-insert them.
+        public static final String PARAM_UPSERT = "upsert";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -130,6 +141,14 @@ public class WeatherContract {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_UPSERT, "true").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_UPSERT));
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -165,4 +184,216 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        The 3 hour forecast: about 40 rows, five days' worth, for every location, every sync.
+        That's three times the rows of the daily forecast, so the table is laid out to keep
+        them small.  Times are stored as a slot number rather than milliseconds, and measured
+        values as whole numbers (tenths, where a tenth matters) rather than floating point.
+        SQLite stores an integer in as few bytes as it fits, where a REAL always takes eight,
+        which roughly halves the size of a row.  Use the helpers below to convert.
+
+        A location has one row for each slot, so a new sync replaces the rows it overlaps.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // How long each slot of the forecast is.  OpenWeatherMap's slots start at midnight
+        // UTC, then every 3 hours.
+        public static final long SLOT_MILLIS = 3 * 60 * 60 * 1000;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Which slot the row is for: its start time in milliseconds since the epoch, divided by
+        // SLOT_MILLIS.  See getSlot and getSlotStartMillis.
+        public static final String COLUMN_SLOT = "slot";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Temperature, in tenths of a degree Celsius.
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity, in whole percent.
+        public static final String COLUMN_HUMIDITY = "humidity";
+        // Pressure, in tenths of a hectopascal.
+        public static final String COLUMN_PRESSURE = "pressure";
+        // Wind speed, in tenths of a metre a second.
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Wind direction, in whole meteorological degrees.
+        public static final String COLUMN_DEGREES = "degrees";
+
+        /**
+         * @return the slot that the given time, in milliseconds since the epoch, falls in.
+         */
+        public static int getSlot(long millis) {
+            return (int) (millis / SLOT_MILLIS);
+        }
+
+        public static long getSlotStartMillis(int slot) {
+            return slot * SLOT_MILLIS;
+        }
+
+        /**
+         * @return the value in tenths, rounded to the nearest, for the columns stored that way.
+         */
+        public static int toTenths(double value) {
+            return (int) Math.round(value * 10);
+        }
+
+        public static double fromTenths(int tenths) {
+            return tenths / 10.0;
+        }
+
+        public static Uri buildHourlyUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @param startMillis The earliest time to include.  The slot it falls in is included.
+         */
+        public static Uri buildHourlyLocationWithStartTime(String locationSetting,
+                                                           long startMillis) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_SLOT, Integer.toString(getSlot(startMillis)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the first slot asked for, or -1 for all of them.
+         */
+        public static int getStartSlotFromUri(Uri uri) {
+            String slotString = uri.getQueryParameter(COLUMN_SLOT);
+            if (null != slotString && slotString.length() > 0)
+                return Integer.parseInt(slotString);
+            else
+                return -1;
+        }
+    }
+
+    /*
+        Forecast history older than the user wants to keep day by day, boiled down to a row
+        per location per week.  Days move here from the weather table as they age (see
+        WeatherProvider.compactHistory), so a week can be built up over several compactions.
+     */
+    public static final class WeeklyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEEKLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEEKLY;
+
+        public static final String TABLE_NAME = "weekly";
+
+        public static final long WEEK_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Which week the row is for: the normalized date of its days divided by WEEK_MILLIS.
+        // See getWeek and getWeekStartMillis.
+        public static final String COLUMN_WEEK = "week";
+        // How many days of the week have been folded into the row.
+        public static final String COLUMN_DAYS = "days";
+        // Lowest minimum and highest maximum of the week's days, in Celsius.
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Averages over the week's days, in the weather table's units.
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        /**
+         * @return the week that the given normalized date falls in.
+         */
+        public static int getWeek(long date) {
+            return (int) (date / WEEK_MILLIS);
+        }
+
+        public static long getWeekStartMillis(int week) {
+            return week * WEEK_MILLIS;
+        }
+
+        public static Uri buildWeeklyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /*
+        Where the time went in each of the last few syncs.  The sync adds a row as it finishes,
+        and only the most recent MAX_ROWS are kept, so this never grows past a few kilobytes.
+        Durations are in milliseconds.
+     */
+    public static final class SyncTelemetryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_TELEMETRY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_SYNC_TELEMETRY;
+
+        public static final String TABLE_NAME = "sync_telemetry";
+
+        // How many syncs we keep.
+        public static final int MAX_ROWS = 50;
+
+        // When the sync started, in milliseconds since the epoch.
+        public static final String COLUMN_STARTED = "started";
+        // The whole sync, start to finish.
+        public static final String COLUMN_TOTAL_MS = "total_ms";
+
+        // How many locations we asked OpenWeatherMap about, and how many came back with a
+        // forecast we stored.
+        public static final String COLUMN_LOCATIONS = "locations";
+        public static final String COLUMN_LOCATIONS_STORED = "locations_stored";
+
+        // Fetching every location, start to finish.  The fetches run side by side, so the
+        // next two add up to more than this.
+        public static final String COLUMN_FETCH_MS = "fetch_ms";
+        // From sending each request until its response headers arrived, added up over every
+        // location: DNS, connecting, the server's own time and any retries.
+        public static final String COLUMN_CONNECT_MS = "connect_ms";
+        // Reading and parsing the response bodies, added up over every location.  The parser
+        // reads straight off the wire, so these happen together.
+        public static final String COLUMN_DOWNLOAD_MS = "download_ms";
+        // Bytes of response body, as they came over the wire (so gzipped, if they were).
+        public static final String COLUMN_BYTES = "bytes";
+
+        // The one batch that adds new locations and writes the daily and 3 hour forecasts.
+        // Rows written counts both days and slots; rows deleted counts only the 3 hour slots
+        // that had already passed.  Past days are kept, for compaction to look after.
+        public static final String COLUMN_STORE_MS = "store_ms";
+        public static final String COLUMN_ROWS_WRITTEN = "rows_written";
+        public static final String COLUMN_ROWS_DELETED = "rows_deleted";
+
+        // Loading the forecast's art.
+        public static final String COLUMN_ART_MS = "art_ms";
+        // Telling the widgets, Muzei and the notification about the new forecast.
+        public static final String COLUMN_NOTIFY_MS = "notify_ms";
+        // Folding days older than the history setting into weekly summaries, in chunks with a
+        // pause between them, and how many days that took in.
+        public static final String COLUMN_COMPACT_MS = "compact_ms";
+        public static final String COLUMN_DAYS_COMPACTED = "days_compacted";
+
+        public static Uri buildSyncTelemetryUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
 }
@@ -15,29 +15,179 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTelemetryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeeklyEntry;
 
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add a
+    // Migration to MIGRATIONS that takes the previous version's database up to it.
+    static final int DATABASE_VERSION = 6;
+
+    // The schema onCreate starts from, before any migrations are applied.  Databases older
+    // than this have no migrations to bring them up to date, so they are rebuilt instead.
+    static final int BASE_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+    static final String INDEX_WEATHER_DATE = "weather_date";
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        // With write-ahead logging, readers work from their own connections and never wait
+        // for a writer, so the forecast list, the detail view and the widgets can keep loading
+        // while a sync commits a big batch of locations.  The platform sizes the reader
+        // connection pool for the device.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging();
+        }
+    }
+
+    // Honeycomb can turn on write-ahead logging as well, but its Context.deleteDatabase leaves
+    // the log file behind for the next database of the same name to trip over.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLogging() {
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * One step in the history of the schema.  It takes a database at the version before
+     * toVersion up to toVersion, keeping everything already stored in it.
+     */
+    abstract static class Migration {
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
     }
 
+    // Every schema change since BASE_VERSION, oldest first.
+    static final Migration[] MIGRATIONS = {
+            // Index behind every weather query made through a location setting.  Once the
+            // location table hands us a location_id, the days we want sit next to each other
+            // in date order.  The rest of the columns are the ones the forecast list, the
+            // widgets and Muzei read, so those queries never need to go back to the weather
+            // table at all.
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE + " ON " +
+                            WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ", " +
+                            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                            WeatherEntry.COLUMN_WEATHER_ID + ");");
+                }
+            },
+            // Where the time went in recent syncs.  Nothing else refers to it, so there are
+            // no keys to keep in step.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + SyncTelemetryEntry.TABLE_NAME + " (" +
+                            SyncTelemetryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            SyncTelemetryEntry.COLUMN_STARTED + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_TOTAL_MS + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_LOCATIONS + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_LOCATIONS_STORED + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_FETCH_MS + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_CONNECT_MS + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_DOWNLOAD_MS + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_BYTES + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_STORE_MS + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_ROWS_WRITTEN + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_ROWS_DELETED + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_ART_MS + " INTEGER NOT NULL, " +
+                            SyncTelemetryEntry.COLUMN_NOTIFY_MS + " INTEGER NOT NULL);");
+                }
+            },
+            // The 3 hour forecast.  Everything is an integer, so rows stay small (see
+            // HourlyEntry).  The UNIQUE constraint's index is on location then slot, which is
+            // exactly how it's queried, so reading one location's slots costs the same however
+            // many locations there are.  No AUTOINCREMENT: every sync replaces most of a
+            // location's rows, and nobody holds on to their _IDs.
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                            HourlyEntry._ID + " INTEGER PRIMARY KEY, " +
+                            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_SLOT + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                            HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+                            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                            HourlyEntry.COLUMN_SLOT + ") ON CONFLICT REPLACE);");
+                }
+            },
+            // Weekly summaries of old forecasts, and an index on date alone so compaction can
+            // pick the oldest days across every location without scanning the whole weather
+            // table each time.  Sync telemetry gains compaction's share of each sync.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + WeeklyEntry.TABLE_NAME + " (" +
+                            WeeklyEntry._ID + " INTEGER PRIMARY KEY, " +
+                            WeeklyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            WeeklyEntry.COLUMN_WEEK + " INTEGER NOT NULL, " +
+                            WeeklyEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                            WeeklyEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                            WeeklyEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                            WeeklyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            WeeklyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            WeeklyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            " FOREIGN KEY (" + WeeklyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + WeeklyEntry.COLUMN_LOC_KEY + ", " +
+                            WeeklyEntry.COLUMN_WEEK + ") ON CONFLICT REPLACE);");
+                    db.execSQL("CREATE INDEX " + INDEX_WEATHER_DATE + " ON " +
+                            WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_DATE + ");");
+                    db.execSQL("ALTER TABLE " + SyncTelemetryEntry.TABLE_NAME + " ADD COLUMN " +
+                            SyncTelemetryEntry.COLUMN_COMPACT_MS + " INTEGER NOT NULL DEFAULT 0;");
+                    db.execSQL("ALTER TABLE " + SyncTelemetryEntry.TABLE_NAME + " ADD COLUMN " +
+                            SyncTelemetryEntry.COLUMN_DAYS_COMPACTED +
+                            " INTEGER NOT NULL DEFAULT 0;");
+                }
+            }
+    };
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        // A new database is built exactly the way an old one is upgraded, so there is only
+        // one definition of the schema to get right.
+        createBaseSchema(sqLiteDatabase);
+        migrate(sqLiteDatabase, BASE_VERSION, DATABASE_VERSION);
+    }
+
+    /**
+     * Creates the tables as they were at BASE_VERSION.  Once a version has shipped, don't
+     * change this: add a Migration instead.
+     */
+    static void createBaseSchema(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -83,16 +233,32 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
     }
 
+    /**
+     * Applies, in order, every migration after fromVersion up to and including toVersion.
+     */
+    static void migrate(SQLiteDatabase sqLiteDatabase, int fromVersion, int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion > fromVersion && migration.toVersion <= toVersion) {
+                migration.migrate(sqLiteDatabase);
+            }
+        }
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // This database is only a cache for online data, but throwing it away means every
+        // user refetches every location the moment they update, and stares at an empty list
+        // until they have.  So we step the schema forward a version at a time, keeping the
+        // forecasts we already have.  SQLiteOpenHelper runs all of this in one transaction.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < BASE_VERSION) {
+            // Too old to migrate: discard the data and start over.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        migrate(sqLiteDatabase, oldVersion, newVersion);
     }
 }
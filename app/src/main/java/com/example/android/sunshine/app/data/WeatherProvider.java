@@ -17,13 +17,24 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
@@ -34,8 +45,28 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int SYNC_TELEMETRY = 400;
+    static final int HOURLY = 500;
+    static final int HOURLY_WITH_LOCATION = 501;
+    static final int WEEKLY = 600;
+    static final int WEEKLY_WITH_LOCATION = 601;
+
+    // Timing is for finding out where the provider is slow, so it's only on to begin with in
+    // debug builds.  Tests and debug screens can turn it on or off as they need.
+    private static final ProviderTimings sTimings = new ProviderTimings(BuildConfig.DEBUG,
+            WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE, LOCATION,
+            SYNC_TELEMETRY, HOURLY, HOURLY_WITH_LOCATION, WEEKLY, WEEKLY_WITH_LOCATION);
+
+    private static final ForecastQueryCache sQueryCache = new ForecastQueryCache();
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // Created with the first provider, since it needs a ContentResolver.
+    private static ChangeNotifier sChangeNotifier;
+
+    // The provider in this process.  Android creates a process's providers before any of its
+    // other code runs, so this is set by the time the sync adapter wants it.
+    private static volatile WeatherProvider sLocalInstance;
+
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -51,23 +82,82 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+
+    static{
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
+    static final SQLiteQueryBuilder sWeeklyByLocationSettingQueryBuilder;
+
+    static{
+        //weekly INNER JOIN location ON weekly.location_id = location._id
+        sWeeklyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sWeeklyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.WeeklyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.WeeklyEntry.TABLE_NAME +
+                        "." + WeatherContract.WeeklyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND slot >= ?
+    static final String sLocationSettingWithStartSlotSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_SLOT + " >= ? ";
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        int startSlot = WeatherContract.HourlyEntry.getStartSlotFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (startSlot < 0) {
+            selection = sLocationSettingSelection;
+            selectionArgs = new String[]{locationSetting};
+        } else {
+            selection = sLocationSettingWithStartSlotSelection;
+            selectionArgs = new String[]{locationSetting, Integer.toString(startSlot)};
+        }
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -130,6 +220,13 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TELEMETRY, SYNC_TELEMETRY);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_WEEKLY, WEEKLY);
+        matcher.addURI(authority, WeatherContract.PATH_WEEKLY + "/*", WEEKLY_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,9 +237,24 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        if (null == sChangeNotifier) {
+            sChangeNotifier = new ChangeNotifier(getContext().getContentResolver());
+        }
+        sLocalInstance = this;
         return true;
     }
 
+    /**
+     * The provider in our own process, for calls a ContentResolver can't make, like
+     * storeForecasts.  ContentProviderClient.getLocalContentProvider would find it too, but
+     * only from Honeycomb on.
+     *
+     * @return the provider, or null if it hasn't been created.
+     */
+    public static WeatherProvider getLocalInstance() {
+        return sLocalInstance;
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -164,6 +276,14 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_TELEMETRY:
+                return WeatherContract.SyncTelemetryEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case WEEKLY:
+            case WEEKLY_WITH_LOCATION:
+                return WeatherContract.WeeklyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,7 +295,24 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        final int match = sUriMatcher.match(uri);
+
+        // Forecasts by location are what everybody asks for, usually several times over right
+        // after a sync, so we answer repeats of those from memory.
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (match == WEATHER_WITH_LOCATION || match == WEATHER_WITH_LOCATION_AND_DATE) {
+            cacheKey = ForecastQueryCache.buildKey(uri, projection, sortOrder);
+            retCursor = sQueryCache.get(cacheKey);
+            if (null != retCursor) {
+                retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+                return retCursor;
+            }
+            cacheGeneration = sQueryCache.getGeneration();
+        }
+
+        final long start = System.nanoTime();
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -213,11 +350,78 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_telemetry"
+            case SYNC_TELEMETRY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncTelemetryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "weekly/*"
+            case WEEKLY_WITH_LOCATION: {
+                retCursor = sWeeklyByLocationSettingQueryBuilder.query(
+                        mOpenHelper.getReadableDatabase(),
+                        projection,
+                        sLocationSettingSelection,
+                        new String[]{WeatherContract.WeeklyEntry.getLocationSettingFromUri(uri)},
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "weekly"
+            case WEEKLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeeklyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+        // SQLite doesn't actually run the query until somebody asks for the rows.  Loaders ask
+        // for the count straight away anyway, so asking here costs nothing extra, and lets the
+        // timing cover the whole query, including any wait for a connection.
+        int rows = retCursor.getCount();
+        sTimings.record(ProviderTimings.OP_QUERY, match, System.nanoTime() - start, rows);
+
+        if (null != cacheKey) {
+            sQueryCache.put(cacheKey, cacheGeneration, retCursor);
+        }
         return retCursor;
     }
 
@@ -226,14 +430,28 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                boolean upsert = WeatherContract.WeatherEntry.isUpsertUri(uri);
+                Batch batch = mBatch.get();
+                WeatherWriter writer = null != batch
+                        ? batch.getWeatherWriter(db) : new WeatherWriter(db);
+                long _id;
+                try {
+                    _id = writer.write(values, upsert);
+                    if (_id == WeatherWriter.UPDATED) {
+                        _id = writer.findId(values);
+                    }
+                } finally {
+                    if (null == batch) {
+                        writer.close();
+                    }
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -248,15 +466,39 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case SYNC_TELEMETRY: {
+                long _id = db.insert(WeatherContract.SyncTelemetryEntry.TABLE_NAME, null, values);
+                if ( _id > 0 ) {
+                    // Only the most recent syncs are kept.  Ids only ever go up, so everything
+                    // MAX_ROWS or more behind this one is older than all of them.
+                    db.delete(WeatherContract.SyncTelemetryEntry.TABLE_NAME,
+                            WeatherContract.SyncTelemetryEntry._ID + " <= ?",
+                            new String[]{Long.toString(
+                                    _id - WeatherContract.SyncTelemetryEntry.MAX_ROWS)});
+                    returnUri = WeatherContract.SyncTelemetryEntry.buildSyncTelemetryUri(_id);
+                } else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
+            case HOURLY: {
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.HourlyEntry.buildHourlyUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        sTimings.record(ProviderTimings.OP_INSERT, match, System.nanoTime() - start, 1);
+        notifyChange(uri);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
@@ -271,12 +513,26 @@ public class WeatherProvider extends ContentProvider {
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case SYNC_TELEMETRY:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncTelemetryEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case WEEKLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.WeeklyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        sTimings.record(ProviderTimings.OP_DELETE, match, System.nanoTime() - start,
+                rowsDeleted);
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -292,6 +548,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
@@ -309,45 +566,491 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        sTimings.record(ProviderTimings.OP_UPDATE, match, System.nanoTime() - start,
+                rowsUpdated);
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        final long start = System.nanoTime();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
+                boolean upsert = WeatherContract.WeatherEntry.isUpsertUri(uri);
                 int returnCount = 0;
+                db.beginTransaction();
+                WeatherWriter writer = new WeatherWriter(db);
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        if (writer.write(value, upsert) != -1) {
                             returnCount++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    writer.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                sTimings.record(ProviderTimings.OP_BULK_INSERT, match, System.nanoTime() - start,
+                        returnCount);
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
                 return returnCount;
+            case HOURLY:
+                int hourlyCount = 0;
+                db.beginTransaction();
+                try {
+                    for (ContentValues value : values) {
+                        if (db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, value) != -1) {
+                            hourlyCount++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                sTimings.record(ProviderTimings.OP_BULK_INSERT, match, System.nanoTime() - start,
+                        hourlyCount);
+                notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+                return hourlyCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    //SELECT _id FROM location WHERE location_setting = ?
+    private static final String sLocationIdStatement =
+            "SELECT " + WeatherContract.LocationEntry._ID +
+                    " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    //INSERT INTO hourly (location_id, slot, weather_id, ...) VALUES (?, ?, ?, ...)
+    // The table's UNIQUE constraint replaces a slot we already have.
+    private static final String sInsertSlotStatement =
+            "INSERT INTO " + WeatherContract.HourlyEntry.TABLE_NAME + " (" +
+                    WeatherContract.HourlyEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_SLOT + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_TEMP + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Stores a batch of forecasts in a single transaction: any of its locations we don't have
+     * yet, every day of weather (updating days we already have in place), every 3 hour slot,
+     * and then the delete of every slot that ended by the batch's stale time, if it has one.
+     * Observers hear about it once it commits.  Past days are left for compactHistory.
+     *
+     * This is the sync adapter's way in.  The values go straight from the batch's arrays into
+     * compiled statements, without a ContentValues or ContentProviderOperation for each day.
+     * Since the provider isn't exported, the batch never has to cross a process boundary; the
+     * sync adapter hands it over through getLocalInstance.
+     *
+     * Afterwards the batch's getRowsWritten and getRowsDeleted say what happened.
+     *
+     * @throws android.database.SQLException if the batch couldn't be stored, in which case
+     * none of it was.
+     */
+    public void storeForecasts(ForecastBatch forecast) {
+        final long start = System.nanoTime();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsWritten = 0;
+        int slotsWritten = 0;
+        int slotsDeleted = 0;
+        boolean newLocations = false;
+        long slotNanos = 0;
+
+        db.beginTransaction();
+        WeatherWriter writer = new WeatherWriter(db);
+        SQLiteStatement findLocation = db.compileStatement(sLocationIdStatement);
+        SQLiteStatement insertSlot = null;
+        try {
+            long[] locationIds = new long[forecast.getLocationCount()];
+            for (int i = 0; i < locationIds.length; i++) {
+                findLocation.bindString(1, forecast.getLocationSetting(i));
+                try {
+                    locationIds[i] = findLocation.simpleQueryForLong();
+                } catch (SQLiteDoneException e) {
+                    ContentValues locationValues = new ContentValues();
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                            forecast.getCityName(i));
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                            forecast.getLocationSetting(i));
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                            forecast.getLatitude(i));
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                            forecast.getLongitude(i));
+                    locationIds[i] = db.insertOrThrow(
+                            WeatherContract.LocationEntry.TABLE_NAME, null, locationValues);
+                    newLocations = true;
+                }
+            }
+
+            final int days = forecast.getDayCount();
+            for (int day = 0; day < days; day++) {
+                long locationId = locationIds[forecast.getDayLocation(day)];
+                if (writer.write(locationId, forecast, day, true) != -1) {
+                    rowsWritten++;
+                }
+            }
+
+            final long slotStart = System.nanoTime();
+            final int slots = forecast.getSlotCount();
+            if (slots > 0) {
+                insertSlot = db.compileStatement(sInsertSlotStatement);
+            }
+            for (int slot = 0; slot < slots; slot++) {
+                insertSlot.bindLong(1, locationIds[forecast.getSlotLocation(slot)]);
+                insertSlot.bindLong(2, forecast.getSlot(slot));
+                insertSlot.bindLong(3, forecast.getSlotWeatherId(slot));
+                insertSlot.bindLong(4, forecast.getSlotTemp(slot));
+                insertSlot.bindLong(5, forecast.getSlotHumidity(slot));
+                insertSlot.bindLong(6, forecast.getSlotPressure(slot));
+                insertSlot.bindLong(7, forecast.getSlotWindSpeed(slot));
+                insertSlot.bindLong(8, forecast.getSlotDegrees(slot));
+                if (insertSlot.executeInsert() != -1) {
+                    slotsWritten++;
+                }
+            }
+            slotNanos = System.nanoTime() - slotStart;
+
+            if (forecast.getStaleBefore() > 0) {
+                slotsDeleted = db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                        WeatherContract.HourlyEntry.COLUMN_SLOT + " < ?",
+                        new String[]{Integer.toString(WeatherContract.HourlyEntry.getSlot(
+                                forecast.getStaleBefore()))});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            findLocation.close();
+            if (null != insertSlot) {
+                insertSlot.close();
+            }
+            writer.close();
+            db.endTransaction();
+        }
+        // The slots get their own timing, and everything else counts as the weather's.
+        sTimings.record(ProviderTimings.OP_BULK_INSERT, WEATHER,
+                System.nanoTime() - start - slotNanos, rowsWritten);
+        if (forecast.getSlotCount() > 0) {
+            sTimings.record(ProviderTimings.OP_BULK_INSERT, HOURLY, slotNanos, slotsWritten);
+        }
+        forecast.setStored(rowsWritten + slotsWritten, slotsDeleted);
+
+        if (newLocations) {
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        if (rowsWritten > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        if (slotsWritten > 0 || slotsDeleted > 0) {
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+    }
+
+    // The weather columns compactHistory reads, oldest day first.
+    private static final String[] sCompactColumns = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED
+    };
+    private static final int COL_COMPACT_ID = 0;
+    private static final int COL_COMPACT_LOC_KEY = 1;
+    private static final int COL_COMPACT_DATE = 2;
+    private static final int COL_COMPACT_MIN_TEMP = 3;
+    private static final int COL_COMPACT_MAX_TEMP = 4;
+    private static final int COL_COMPACT_HUMIDITY = 5;
+    private static final int COL_COMPACT_PRESSURE = 6;
+    private static final int COL_COMPACT_WIND_SPEED = 7;
+
+    // What a week's summary already holds, for folding more days into it.
+    private static final String[] sWeeklyColumns = {
+            WeatherContract.WeeklyEntry.COLUMN_DAYS,
+            WeatherContract.WeeklyEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeeklyEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeeklyEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeeklyEntry.COLUMN_PRESSURE,
+            WeatherContract.WeeklyEntry.COLUMN_WIND_SPEED
+    };
+
+    //location_id = ? AND week = ?
+    private static final String sLocationAndWeekSelection =
+            WeatherContract.WeeklyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeeklyEntry.COLUMN_WEEK + " = ?";
+
+    //DELETE FROM weather WHERE _id = ?
+    private static final String sDeleteDayStatement =
+            "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.WeatherEntry._ID + " = ?";
+
+    /**
+     * Moves the oldest days before the given date, for every location, out of the weather
+     * table and into their weeks' summaries in the weekly table.  It takes at most maxDays of
+     * them, in one transaction, so the database is only locked for as long as that many days
+     * take; call it again, after giving everybody else a turn, until it returns less than
+     * maxDays.
+     *
+     * The oldest days are found through the index on date, so each call only reads the days
+     * it compacts, however much history there is.
+     *
+     * @return how many days were compacted.
+     */
+    public int compactHistory(long before, int maxDays) {
+        final long start = System.nanoTime();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long[] dayIds = new long[maxDays];
+        int days = 0;
+        ArrayList<WeekSummary> weeks = new ArrayList<WeekSummary>();
+
+        db.beginTransaction();
+        SQLiteStatement deleteDay = db.compileStatement(sDeleteDayStatement);
+        try {
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, sCompactColumns,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(before)}, null, null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC", Integer.toString(maxDays));
+            try {
+                while (cursor.moveToNext()) {
+                    WeekSummary week = WeekSummary.find(weeks,
+                            cursor.getLong(COL_COMPACT_LOC_KEY),
+                            WeatherContract.WeeklyEntry.getWeek(cursor.getLong(COL_COMPACT_DATE)));
+                    week.addDays(1,
+                            cursor.getDouble(COL_COMPACT_MIN_TEMP),
+                            cursor.getDouble(COL_COMPACT_MAX_TEMP),
+                            cursor.getDouble(COL_COMPACT_HUMIDITY),
+                            cursor.getDouble(COL_COMPACT_PRESSURE),
+                            cursor.getDouble(COL_COMPACT_WIND_SPEED));
+                    dayIds[days++] = cursor.getLong(COL_COMPACT_ID);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            for (WeekSummary week : weeks) {
+                String[] weekArgs = {Long.toString(week.mLocationId), Integer.toString(week.mWeek)};
+                Cursor stored = db.query(WeatherContract.WeeklyEntry.TABLE_NAME, sWeeklyColumns,
+                        sLocationAndWeekSelection, weekArgs, null, null, null);
+                try {
+                    if (stored.moveToFirst()) {
+                        // The rest of the week was compacted earlier.  Its averages are
+                        // weighted by its days, to come out the same as doing it all at once.
+                        int storedDays = stored.getInt(0);
+                        week.addDays(storedDays, stored.getDouble(1), stored.getDouble(2),
+                                stored.getDouble(3) * storedDays,
+                                stored.getDouble(4) * storedDays,
+                                stored.getDouble(5) * storedDays);
+                    }
+                } finally {
+                    stored.close();
+                }
+                // The UNIQUE constraint replaces the summary that was there.
+                db.insertOrThrow(WeatherContract.WeeklyEntry.TABLE_NAME, null,
+                        week.toContentValues());
+            }
+
+            for (int i = 0; i < days; i++) {
+                deleteDay.bindLong(1, dayIds[i]);
+                deleteDay.execute();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            deleteDay.close();
+            db.endTransaction();
+        }
+        sTimings.record(ProviderTimings.OP_DELETE, WEATHER, System.nanoTime() - start, days);
+
+        if (days > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            notifyChange(WeatherContract.WeeklyEntry.CONTENT_URI);
+        }
+        return days;
+    }
+
+    /**
+     * Applies the whole batch in a single transaction, so it's stored all or nothing, and
+     * tells observers about each changed URI once, after the batch has committed, instead of
+     * once per operation.
+     *
+     * Operations marked with withYieldAllowed let any other writer that's waiting go first.
+     * That commits what has been applied so far, so only allow it where a partly applied
+     * batch still makes sense.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            final int numOperations = operations.size();
+            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    db.yieldIfContendedSafely();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            batch.close();
+            mBatch.remove();
+            db.endTransaction();
+            // A batch that failed part way may still have committed up to its last yield, so
+            // we treat its changes as made either way.  At worst observers requery for nothing.
+            sQueryCache.invalidate();
+            for (Uri uri : batch.mChangedUris) {
+                sChangeNotifier.notifyChange(uri);
+            }
+        }
+    }
+
+    /*
+        One location's week on its way into the weekly table.  Humidity, pressure and wind are
+        kept as totals until the row is written, so days can be added a few at a time.
+     */
+    private static class WeekSummary {
+        final long mLocationId;
+        final int mWeek;
+        int mDays;
+        double mMinTemp = Double.MAX_VALUE;
+        double mMaxTemp = -Double.MAX_VALUE;
+        double mHumidityTotal;
+        double mPressureTotal;
+        double mWindSpeedTotal;
+
+        WeekSummary(long locationId, int week) {
+            mLocationId = locationId;
+            mWeek = week;
+        }
+
+        /**
+         * @return the summary for the location's week, added to weeks if it isn't there yet.
+         * A compaction only spans a handful of weeks, so a list is all it takes.
+         */
+        static WeekSummary find(ArrayList<WeekSummary> weeks, long locationId, int week) {
+            for (int i = 0; i < weeks.size(); i++) {
+                WeekSummary summary = weeks.get(i);
+                if (summary.mLocationId == locationId && summary.mWeek == week) {
+                    return summary;
+                }
+            }
+            WeekSummary summary = new WeekSummary(locationId, week);
+            weeks.add(summary);
+            return summary;
+        }
+
+        void addDays(int days, double minTemp, double maxTemp, double humidityTotal,
+                     double pressureTotal, double windSpeedTotal) {
+            mDays += days;
+            mMinTemp = Math.min(mMinTemp, minTemp);
+            mMaxTemp = Math.max(mMaxTemp, maxTemp);
+            mHumidityTotal += humidityTotal;
+            mPressureTotal += pressureTotal;
+            mWindSpeedTotal += windSpeedTotal;
+        }
+
+        ContentValues toContentValues() {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.WeeklyEntry.COLUMN_LOC_KEY, mLocationId);
+            values.put(WeatherContract.WeeklyEntry.COLUMN_WEEK, mWeek);
+            values.put(WeatherContract.WeeklyEntry.COLUMN_DAYS, mDays);
+            values.put(WeatherContract.WeeklyEntry.COLUMN_MIN_TEMP, mMinTemp);
+            values.put(WeatherContract.WeeklyEntry.COLUMN_MAX_TEMP, mMaxTemp);
+            values.put(WeatherContract.WeeklyEntry.COLUMN_HUMIDITY, mHumidityTotal / mDays);
+            values.put(WeatherContract.WeeklyEntry.COLUMN_PRESSURE, mPressureTotal / mDays);
+            values.put(WeatherContract.WeeklyEntry.COLUMN_WIND_SPEED, mWindSpeedTotal / mDays);
+            return values;
+        }
+    }
+
+    /*
+        What applyBatch keeps for the length of a batch: the changes to announce once it
+        commits, and the compiled weather statements, so a batch of weather inserts costs no
+        more than a bulkInsert.
+     */
+    private static class Batch {
+        final Set<Uri> mChangedUris = new LinkedHashSet<Uri>();
+        private WeatherWriter mWeatherWriter;
+
+        WeatherWriter getWeatherWriter(SQLiteDatabase db) {
+            if (null == mWeatherWriter) {
+                mWeatherWriter = new WeatherWriter(db);
+            }
+            return mWeatherWriter;
+        }
+
+        void close() {
+            if (null != mWeatherWriter) {
+                mWeatherWriter.close();
+            }
+        }
+    }
+
+    // The batch applyBatch is running on this thread, if any.
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    /*
+        Tells observers the data behind the URI has changed, after forgetting any cached query
+        results.  During applyBatch the change is held back until the batch is done, and
+        either way sChangeNotifier gathers it up with any others made around the same time.
+     */
+    private void notifyChange(Uri uri) {
+        // Observers only ever look at the path, so weather?upsert=true is the same change as
+        // weather.
+        uri = uri.buildUpon().clearQuery().build();
+        Batch batch = mBatch.get();
+        if (null != batch) {
+            batch.mChangedUris.add(uri);
+            return;
+        }
+        sQueryCache.invalidate();
+        sChangeNotifier.notifyChange(uri);
+    }
+
+    /**
+     * @return how long queries and writes in this process have taken, for each kind of URI.
+     */
+    public static ProviderTimings getTimings() {
+        return sTimings;
+    }
+
+    /**
+     * @return what gathers up this process's change notifications, for its counts of how many
+     * were asked for and how many were sent.
+     */
+    public static ChangeNotifier getChangeNotifier() {
+        return sChangeNotifier;
+    }
+
+    /**
+     * @return the cache of forecast queries, for its hit and miss counts.
+     */
+    public static ForecastQueryCache getQueryCache() {
+        return sQueryCache;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        sQueryCache.invalidate();
         mOpenHelper.close();
         super.shutdown();
     }
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Writes weather rows using statements compiled once and reused for every row, rather than
+ * having db.insert build, compile and throw away the same SQL each time.  WeatherProvider
+ * keeps one for the length of a bulkInsert, applyBatch or storeForecasts.
+ *
+ * With upsert set, a day we already have for the location is updated in place.  That keeps
+ * its _ID, and spares SQLite the delete and re-insert (and the index churn that goes with it)
+ * that the table's ON CONFLICT REPLACE would otherwise do.
+ *
+ * The compiled statements bind every column, so they're only used for values that have every
+ * column and nothing else.  Anything else goes through db.update and db.insert as before: a
+ * partial upsert changes only the columns it has, a plain insert keeps the table's defaults,
+ * and a column the table doesn't have is an error rather than silently dropped.
+ */
+class WeatherWriter {
+    private final String LOG_TAG = WeatherWriter.class.getSimpleName();
+
+    // What write returns when it updated an existing row in place.
+    static final long UPDATED = 0;
+
+    // The columns we bind to the compiled statements.  A row is identified by its key columns;
+    // everything else is data.
+    private static final String[] sKeyColumns = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE
+    };
+
+    private static final String[] sDataColumns = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    //INSERT INTO weather (weather_id, short_desc, ..., location_id, date) VALUES (?, ?, ...)
+    private static final String sInsertStatement;
+
+    //UPDATE weather SET weather_id = ?, short_desc = ?, ... WHERE location_id = ? AND date = ?
+    private static final String sUpdateStatement;
+
+    //SELECT _id FROM weather WHERE location_id = ? AND date = ?
+    private static final String sSelectIdStatement;
+
+    static{
+        StringBuilder insert = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME).append(" (");
+        StringBuilder params = new StringBuilder();
+        StringBuilder update = new StringBuilder("UPDATE ")
+                .append(WeatherEntry.TABLE_NAME).append(" SET ");
+        StringBuilder where = new StringBuilder(" WHERE ");
+        for (int i = 0; i < sDataColumns.length; i++) {
+            insert.append(sDataColumns[i]).append(", ");
+            params.append("?, ");
+            if (i > 0) update.append(", ");
+            update.append(sDataColumns[i]).append(" = ?");
+        }
+        for (int i = 0; i < sKeyColumns.length; i++) {
+            if (i > 0) {
+                insert.append(", ");
+                params.append(", ");
+                where.append(" AND ");
+            }
+            insert.append(sKeyColumns[i]);
+            params.append("?");
+            where.append(sKeyColumns[i]).append(" = ?");
+        }
+        sInsertStatement = insert.append(") VALUES (").append(params).append(")").toString();
+        sUpdateStatement = update.append(where).toString();
+        sSelectIdStatement = "SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME +
+                where;
+    }
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mInsert;
+    private SQLiteStatement mUpdate;
+    private SQLiteStatement mSelectId;
+    private final Time mTime = new Time();
+
+    WeatherWriter(SQLiteDatabase db) {
+        mDb = db;
+        mInsert = db.compileStatement(sInsertStatement);
+    }
+
+    /**
+     * Writes one row.  Like the provider always has, this normalizes the date in the values.
+     *
+     * @return the _ID of the inserted row, UPDATED if an existing row was updated in place,
+     * or -1 if the row couldn't be written.
+     */
+    long write(ContentValues value, boolean upsert) {
+        // Same as normalizeDate, but without a new Time for every row.
+        Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (null != date) {
+            date = WeatherContract.normalizeDate(date, mTime);
+            value.put(WeatherEntry.COLUMN_DATE, date);
+        }
+
+        if (!hasEveryColumn(value)) {
+            return writePartial(value, upsert);
+        }
+
+        try {
+            // Updating in place needs executeUpdateDelete to tell us if there was a row to
+            // update.  Before Honeycomb we just insert, and let the UNIQUE constraint replace.
+            if (upsert && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                if (null == mUpdate) {
+                    mUpdate = mDb.compileStatement(sUpdateStatement);
+                }
+                bindValues(mUpdate, value, date, sDataColumns);
+                if (executeUpdateDelete(mUpdate) > 0) {
+                    return UPDATED;
+                }
+            }
+            bindValues(mInsert, value, date, sDataColumns);
+            return mInsert.executeInsert();
+        } catch (android.database.SQLException e) {
+            // db.insert logs and skips rows that break a constraint, and so do we.
+            Log.e(LOG_TAG, "Error inserting " + value, e);
+            return -1;
+        }
+    }
+
+    /*
+        The slow path, for values the compiled statements can't take as they are.
+     */
+    private long writePartial(ContentValues value, boolean upsert) {
+        try {
+            String locationId = value.getAsString(WeatherEntry.COLUMN_LOC_KEY);
+            String date = value.getAsString(WeatherEntry.COLUMN_DATE);
+            if (upsert && null != locationId && null != date) {
+                int updated = mDb.update(WeatherEntry.TABLE_NAME, value,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                WeatherEntry.COLUMN_DATE + " = ?",
+                        new String[]{locationId, date});
+                if (updated > 0) {
+                    return UPDATED;
+                }
+            }
+        } catch (android.database.SQLException e) {
+            Log.e(LOG_TAG, "Error updating " + value, e);
+            return -1;
+        }
+        // db.insert logs and returns -1 itself.
+        return mDb.insert(WeatherEntry.TABLE_NAME, null, value);
+    }
+
+    /*
+        Whether the values have exactly the columns the compiled statements bind.
+     */
+    private static boolean hasEveryColumn(ContentValues value) {
+        if (value.size() != sKeyColumns.length + sDataColumns.length) {
+            return false;
+        }
+        for (String column : sKeyColumns) {
+            if (!value.containsKey(column)) return false;
+        }
+        for (String column : sDataColumns) {
+            if (!value.containsKey(column)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes one day of a batch, straight from its columns, for the given location.
+     *
+     * @return the same as {@link #write(ContentValues, boolean)}.
+     */
+    long write(long locationId, ForecastBatch batch, int day, boolean upsert) {
+        long date = WeatherContract.normalizeDate(batch.getDate(day), mTime);
+        try {
+            if (upsert && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                if (null == mUpdate) {
+                    mUpdate = mDb.compileStatement(sUpdateStatement);
+                }
+                bindDay(mUpdate, locationId, batch, day, date);
+                if (executeUpdateDelete(mUpdate) > 0) {
+                    return UPDATED;
+                }
+            }
+            bindDay(mInsert, locationId, batch, day, date);
+            return mInsert.executeInsert();
+        } catch (android.database.SQLException e) {
+            Log.e(LOG_TAG, "Error inserting day " + day + " of " + batch, e);
+            return -1;
+        }
+    }
+
+    /**
+     * @return the _ID of the row for the values' location and date, or -1 if there isn't one.
+     * The date must already be normalized, as write leaves it.
+     */
+    long findId(ContentValues value) {
+        if (null == mSelectId) {
+            mSelectId = mDb.compileStatement(sSelectIdStatement);
+        }
+        bindValues(mSelectId, value, value.getAsLong(WeatherEntry.COLUMN_DATE), new String[0]);
+        try {
+            return mSelectId.simpleQueryForLong();
+        } catch (android.database.sqlite.SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    void close() {
+        mInsert.close();
+        if (null != mUpdate) {
+            mUpdate.close();
+        }
+        if (null != mSelectId) {
+            mSelectId.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int executeUpdateDelete(SQLiteStatement statement) {
+        return statement.executeUpdateDelete();
+    }
+
+    /*
+        The same order again, with the data columns bound straight from the batch.  This has to
+        follow sDataColumns.
+     */
+    private static void bindDay(SQLiteStatement statement, long locationId, ForecastBatch batch,
+                                int day, long normalizedDate) {
+        statement.clearBindings();
+        statement.bindLong(1, batch.getWeatherId(day));
+        String description = batch.getDescription(day);
+        if (null == description) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, description);
+        }
+        statement.bindDouble(3, batch.getMinTemp(day));
+        statement.bindDouble(4, batch.getMaxTemp(day));
+        statement.bindLong(5, batch.getHumidity(day));
+        statement.bindDouble(6, batch.getPressure(day));
+        statement.bindDouble(7, batch.getWindSpeed(day));
+        statement.bindDouble(8, batch.getDegrees(day));
+        statement.bindLong(9, locationId);
+        statement.bindLong(10, normalizedDate);
+    }
+
+    /*
+        Our statements take their parameters in the same order: the data columns they use,
+        then the key columns.
+     */
+    private static void bindValues(SQLiteStatement statement, ContentValues values,
+                                   Long normalizedDate, String[] dataColumns) {
+        statement.clearBindings();
+        int index = 1;
+        for (String column : dataColumns) {
+            DatabaseUtils.bindObjectToProgram(statement, index++, values.get(column));
+        }
+        DatabaseUtils.bindObjectToProgram(statement, index++,
+                values.get(WeatherEntry.COLUMN_LOC_KEY));
+        DatabaseUtils.bindObjectToProgram(statement, index, normalizedDate);
+    }
+}
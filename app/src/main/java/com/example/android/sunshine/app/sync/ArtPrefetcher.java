@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.ArtCache;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.WeatherConditions;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Loads the art for the preferred location's forecast into the ArtCache, at the sizes the
+ * list, the detail view, the detail widget and the notification show it at.  The sync runs
+ * this right after it stores a new forecast, and before it tells the widgets and the
+ * notification about it.
+ *
+ * The forecast usually only has a few different kinds of weather, and every condition in a
+ * bucket shares its art, so there's only a handful of images to load however many days there
+ * are.  All the requests go to Glide at once, and Glide loads them in parallel.
+ */
+class ArtPrefetcher {
+    private final String LOG_TAG = ArtPrefetcher.class.getSimpleName();
+
+    // How long we'll wait for each image before giving up on it.
+    private static final long TIMEOUT_SECONDS = 15;
+
+    private static final String[] WEATHER_ID_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private final Context mContext;
+    private final ArtCache mArtCache;
+
+    ArtPrefetcher(Context context, ArtCache artCache) {
+        mContext = context;
+        mArtCache = artCache;
+    }
+
+    /*
+        One image at one size, and Glide's request for it.
+     */
+    private static class Request {
+        final int mWeatherId;
+        final String mUrl;
+        final int mWidth;
+        final int mHeight;
+        FutureTarget<Bitmap> mTarget;
+
+        Request(int weatherId, String url, int width, int height) {
+            mWeatherId = weatherId;
+            mUrl = url;
+            mWidth = width;
+            mHeight = height;
+        }
+    }
+
+    void prefetch() {
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        if (settings.usingLocalGraphics()) return;
+
+        String artPack = settings.getArtPack();
+        SparseIntArray buckets = getBuckets(settings.getPreferredLocation());
+        List<int[]> sizes = getSizes();
+
+        // Start everything we don't already have...
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < buckets.size(); i++) {
+            int weatherId = buckets.valueAt(i);
+            String url = WeatherConditions.getArtUrl(artPack, weatherId);
+            for (int[] size : sizes) {
+                if (mArtCache.contains(artPack, weatherId, size[0], size[1])) continue;
+                Request request = new Request(weatherId, url, size[0], size[1]);
+                request.mTarget = Glide.with(mContext)
+                        .load(url)
+                        .asBitmap()
+                        .fitCenter()
+                        .into(size[0], size[1]);
+                requests.add(request);
+            }
+        }
+
+        // ...then collect it as it arrives.
+        int loaded = 0;
+        for (int i = 0; i < requests.size(); i++) {
+            Request request = requests.get(i);
+            try {
+                Bitmap bitmap = request.mTarget.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                mArtCache.put(artPack, request.mWeatherId, request.mWidth, request.mHeight,
+                        bitmap);
+                loaded++;
+            } catch (InterruptedException e) {
+                // The sync was cancelled.  Stop whatever hasn't finished.
+                for (int j = i; j < requests.size(); j++) {
+                    requests.get(j).mTarget.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                Log.w(LOG_TAG, "Error retrieving art from " + request.mUrl, e);
+                request.mTarget.cancel(true);
+            } catch (TimeoutException e) {
+                Log.w(LOG_TAG, "Timed out retrieving art from " + request.mUrl, e);
+                request.mTarget.cancel(true);
+            }
+        }
+        Log.d(LOG_TAG, "Prefetched " + loaded + " of " + requests.size() + " images for " +
+                buckets.size() + " kinds of weather");
+        mArtCache.logStats();
+    }
+
+    /*
+        The sizes we show art at, each once.  On some screens some of them are the same.
+     */
+    private List<int[]> getSizes() {
+        int listIconSize = ArtCache.getListIconSize(mContext);
+        int todayIconSize = ArtCache.getTodayIconSize(mContext);
+        int[][] all = {
+                { listIconSize, listIconSize },
+                { todayIconSize, todayIconSize },
+                { ArtCache.getNotificationIconWidth(mContext),
+                        ArtCache.getNotificationIconHeight(mContext) }
+        };
+        List<int[]> sizes = new ArrayList<int[]>();
+        for (int[] size : all) {
+            boolean seen = false;
+            for (int[] other : sizes) {
+                seen |= other[0] == size[0] && other[1] == size[1];
+            }
+            if (!seen) sizes.add(size);
+        }
+        return sizes;
+    }
+
+    /*
+        The art buckets in the location's forecast from today on, each mapped to the first
+        condition we saw from it.  Buckets without art are left out.
+     */
+    private SparseIntArray getBuckets(String locationSetting) {
+        SparseIntArray buckets = new SparseIntArray();
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, WEATHER_ID_PROJECTION,
+                null, null, null);
+        if (null == cursor) return buckets;
+        try {
+            while (cursor.moveToNext()) {
+                int weatherId = cursor.getInt(0);
+                int bucket = WeatherConditions.getBucket(weatherId);
+                if (WeatherConditions.BUCKET_NONE != bucket && buckets.indexOfKey(bucket) < 0) {
+                    buckets.put(bucket, weatherId);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * The "city" object OpenWeatherMap sends with both the daily and the 3 hour forecast: the
+ * name and coordinates we store with a location the database hasn't seen before.
+ *
+ * The streaming parsers for both forecasts read it through here, so they always agree on what
+ * a complete city is.
+ */
+class CityJsonParser {
+
+    private String mName;
+    private boolean mHasCoord;
+    private double mLatitude;
+    private double mLongitude;
+
+    /**
+     * Reads the city object the reader is at, skipping anything we don't use.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    void read(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (ForecastJsonParser.OWM_CITY_NAME.equals(name)) {
+                mName = reader.nextString();
+            } else if (ForecastJsonParser.OWM_COORD.equals(name)) {
+                boolean hasLatitude = false;
+                boolean hasLongitude = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (ForecastJsonParser.OWM_LATITUDE.equals(coordName)) {
+                        mLatitude = reader.nextDouble();
+                        hasLatitude = true;
+                    } else if (ForecastJsonParser.OWM_LONGITUDE.equals(coordName)) {
+                        mLongitude = reader.nextDouble();
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                mHasCoord = hasLatitude && hasLongitude;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * For the org.json path, which pulls the values out of the tree itself.
+     */
+    void set(String name, double latitude, double longitude) {
+        mName = name;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mHasCoord = true;
+    }
+
+    /**
+     * @return whether we have the name and both coordinates.
+     */
+    boolean isComplete() {
+        return null != mName && mHasCoord;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    double getLatitude() {
+        return mLatitude;
+    }
+
+    double getLongitude() {
+        return mLongitude;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Makes the HTTP requests for the sync.  One client is shared by every fetch and every sync,
+ * which gets us a few things a fresh HttpURLConnection per request doesn't:
+ *
+ * - Connections are kept alive and reused.  HttpURLConnection pools them for us, but only
+ *   if we read the response and close its stream instead of calling disconnect().  Setting up
+ *   a connection costs more than the request itself on a mobile network, and we make one
+ *   request per saved location.
+ * - Responses are gzipped, which makes a forecast a fraction of the size.
+ * - Connecting and reading time out, so a dead network can't hold the sync up forever.
+ * - Requests that fail in a way that might be temporary are retried a couple of times,
+ *   waiting a little longer, and a little randomly, each time.  The randomness keeps the
+ *   fetches that failed together from retrying together.
+ *
+ * The base URL is part of the client so tests can point the sync at a server of their own.
+ */
+class ForecastClient {
+    private static final String LOG_TAG = ForecastClient.class.getSimpleName();
+
+    static final String DEFAULT_BASE_URL = "http://api.openweathermap.org/data/2.5/";
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final int DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+    // However many attempts we're allowed, we never wait longer than this between them.
+    private static final int MAX_BACKOFF_MILLIS = 30 * 1000;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    /**
+     * Adds headers of its own to each attempt at a request, before it is sent.
+     */
+    interface RequestHeaders {
+        void addTo(HttpURLConnection connection);
+    }
+
+    private final String mBaseUrl;
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final int mMaxAttempts;
+    private final int mInitialBackoffMillis;
+    private final Random mRandom = new Random();
+
+    ForecastClient() {
+        this(DEFAULT_BASE_URL, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS,
+                DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param baseUrl Where the OpenWeatherMap API lives, ending in a slash.
+     * @param maxAttempts How many times to try a request before giving up, at least 1.
+     * @param initialBackoffMillis About how long to wait before the first retry.  Each retry
+     *                             after that waits about twice as long as the one before.
+     */
+    ForecastClient(String baseUrl, int connectTimeoutMillis, int readTimeoutMillis,
+                   int maxAttempts, int initialBackoffMillis) {
+        mBaseUrl = baseUrl;
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mMaxAttempts = Math.max(1, maxAttempts);
+        mInitialBackoffMillis = initialBackoffMillis;
+    }
+
+    String getBaseUrl() {
+        return mBaseUrl;
+    }
+
+    /**
+     * Makes a GET request, retrying it if it can't connect, times out or the server has an
+     * error (a 5xx).  Any other response, including 304s and 4xxs, comes straight back.
+     *
+     * @param headers Extra headers for the request, or null.
+     * @return the response, which must be closed.  If every attempt got a server error, it's
+     * the last of them.
+     * @throws IOException if the last attempt couldn't get a response at all, or if we were
+     * interrupted.
+     */
+    Response get(String url, RequestHeaders headers) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) new URL(url).openConnection();
+                connection.setRequestMethod("GET");
+                connection.setConnectTimeout(mConnectTimeoutMillis);
+                connection.setReadTimeout(mReadTimeoutMillis);
+                // Asking for gzip ourselves turns off any decoding HttpURLConnection would do
+                // for us, so Response does it instead.  That way it's done the same on every
+                // version of Android, and against any server.
+                connection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+                if (null != headers) {
+                    headers.addTo(connection);
+                }
+
+                int code = connection.getResponseCode();
+                if (code < HttpURLConnection.HTTP_INTERNAL_ERROR || attempt >= mMaxAttempts) {
+                    return new Response(connection, code);
+                }
+                Log.w(LOG_TAG, "Attempt " + attempt + " got " + code + " from " + url);
+                new Response(connection, code).close();
+            } catch (IOException e) {
+                if (null != connection) {
+                    connection.disconnect();
+                }
+                if (attempt >= mMaxAttempts || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                Log.w(LOG_TAG, "Attempt " + attempt + " failed for " + url, e);
+            }
+
+            try {
+                Thread.sleep(getBackoffMillis(attempt, mInitialBackoffMillis, mRandom));
+            } catch (InterruptedException e) {
+                // The sync was cancelled.
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " + url);
+            }
+        }
+    }
+
+    /**
+     * @return how long to wait after the given attempt failed: a random time between half and
+     * all of initialBackoffMillis, doubled for every attempt before this one.
+     */
+    static long getBackoffMillis(int attempt, int initialBackoffMillis, Random random) {
+        long backoff = initialBackoffMillis;
+        for (int i = 1; i < attempt && backoff < MAX_BACKOFF_MILLIS; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLIS);
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+
+    /**
+     * A response from the server.  Closing it hands the connection back to be reused.
+     */
+    static class Response {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private InputStream mBody;
+        private CountingInputStream mRawBody;
+
+        Response(HttpURLConnection connection, int code) {
+            mConnection = connection;
+            mCode = code;
+        }
+
+        int getCode() {
+            return mCode;
+        }
+
+        String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the body, un-gzipped if the server gzipped it.
+         * @throws IOException if the response is an error, which has no body to read.
+         */
+        InputStream getBody() throws IOException {
+            if (null == mBody) {
+                InputStream body = mConnection.getInputStream();
+                if (null == body) return null;
+                mRawBody = new CountingInputStream(body);
+                body = mRawBody;
+                if (ENCODING_GZIP.equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    body = new GZIPInputStream(body);
+                }
+                mBody = body;
+            }
+            return mBody;
+        }
+
+        /**
+         * @return how many bytes of the body have been read so far, as they came over the
+         * wire.  For a gzipped body, that's before it was un-gzipped.
+         */
+        long getBytesRead() {
+            return null == mRawBody ? 0 : mRawBody.mCount;
+        }
+
+        void close() {
+            try {
+                InputStream body = mBody;
+                if (null == body) {
+                    // Even a response without a body has to have its stream closed, or the
+                    // connection won't be reused.
+                    body = mCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mConnection.getErrorStream() : mConnection.getInputStream();
+                }
+                if (null != body) {
+                    body.close();
+                }
+            } catch (IOException e) {
+                // Something went wrong with the connection, so don't reuse it.
+                mConnection.disconnect();
+            }
+        }
+    }
+
+    /*
+        Counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) mCount++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) mCount += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
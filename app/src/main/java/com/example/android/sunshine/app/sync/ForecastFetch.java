@@ -0,0 +1,328 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches and parses the forecast for a single location.  The sync adapter runs a handful of
+ * these side by side, then stores everything they brought back in one go on the sync thread.
+ *
+ * Once the daily forecast is in hand, the 3 hour forecast follows over the same connection.
+ * It's an extra: if it fails, the daily forecast is stored without it, and the location's
+ * status only ever reflects the daily forecast.
+ *
+ * Nothing here writes to the database; a fetch only reads it to decide whether it is safe to
+ * make a conditional request.
+ */
+class ForecastFetch implements Callable<ForecastFetch> {
+    private static final String LOG_TAG = ForecastFetch.class.getSimpleName();
+
+    // How the fetch turned out.  RESULT_PARSED still needs the message code checking, since
+    // OpenWeatherMap reports errors such as an unknown city inside a normal looking response.
+    static final int RESULT_NONE = 0;
+    static final int RESULT_PARSED = 1;
+    static final int RESULT_NOT_MODIFIED = 2;
+    static final int RESULT_UNCHANGED = 3;
+    static final int RESULT_SERVER_DOWN = 4;
+    static final int RESULT_SERVER_INVALID = 5;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private final Context mContext;
+    private final ForecastClient mClient;
+    private final ForecastValidatorCache mValidatorCache;
+    private final String mLocationSetting;
+    private final String mRequest;
+    private final String mHourlyRequest;
+    private final int mJulianStartDay;
+
+    private int mResult = RESULT_NONE;
+    private ForecastJsonParser mParser;
+    private HourlyJsonParser mHourlyParser;
+    private String mETag;
+    private String mLastModified;
+    private String mBodyHash;
+
+    // Where this fetch's time went, and how much it downloaded, for SyncTelemetry.
+    private long mConnectNanos;
+    private long mDownloadNanos;
+    private long mBytesRead;
+
+    /**
+     * @param locationSetting The location string the forecast will be stored under.
+     * @param requestUri The OpenWeatherMap query for the location.
+     * @param hourlyUri The OpenWeatherMap query for the location's 3 hour forecast, or null to
+     *                  go without.
+     * @param julianStartDay The julian day of the first day in the forecast.
+     */
+    ForecastFetch(Context context, ForecastClient client, ForecastValidatorCache validatorCache,
+                  String locationSetting, Uri requestUri, Uri hourlyUri, int julianStartDay) {
+        mContext = context;
+        mClient = client;
+        mValidatorCache = validatorCache;
+        mLocationSetting = locationSetting;
+        mRequest = requestUri.toString();
+        mHourlyRequest = null == hourlyUri ? null : hourlyUri.toString();
+        mJulianStartDay = julianStartDay;
+    }
+
+    @Override
+    public ForecastFetch call() {
+        fetchDaily();
+        // No point asking for the 3 hour forecast of a place the server couldn't find, or
+        // while it's failing.
+        if (null != mHourlyRequest && isLocationFound()
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            fetchHourly();
+        }
+        return this;
+    }
+
+    private boolean isLocationFound() {
+        switch (mResult) {
+            case RESULT_NOT_MODIFIED:
+            case RESULT_UNCHANGED:
+                return true;
+            case RESULT_PARSED:
+                return mParser.getMessageCode() == HttpURLConnection.HTTP_OK;
+            default:
+                return false;
+        }
+    }
+
+    private void fetchDaily() {
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        ForecastClient.Response response = null;
+        BufferedReader reader = null;
+        long downloadStart = 0;
+
+        try {
+            // If we already have today's forecast for this location, there's a good chance it
+            // hasn't changed since the last sync.  Only then is it safe to ask the server to
+            // skip sending it again.
+            final boolean haveForecast = hasStoredForecast();
+
+            // Make the request to OpenWeatherMap
+            long connectStart = System.nanoTime();
+            response = mClient.get(mRequest, new ForecastClient.RequestHeaders() {
+                @Override
+                public void addTo(HttpURLConnection connection) {
+                    if (haveForecast) {
+                        mValidatorCache.addConditionalHeaders(connection, mRequest,
+                                mJulianStartDay);
+                    }
+                }
+            });
+            downloadStart = System.nanoTime();
+            mConnectNanos = downloadStart - connectStart;
+
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing upstream has changed, so there is nothing to parse, store or tell
+                // anybody about.
+                mResult = RESULT_NOT_MODIFIED;
+                return;
+            }
+
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                // Nothing to do.
+                return;
+            }
+
+            // Hash the body as we read it, for servers that don't send validators.
+            MessageDigest bodyDigest = ForecastValidatorCache.newBodyDigest();
+            if (null != bodyDigest) {
+                inputStream = new DigestInputStream(inputStream, bodyDigest);
+            }
+
+            ForecastJsonParser parser = new ForecastJsonParser(mLocationSetting, mJulianStartDay);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // Pull the forecast straight off the wire, one token at a time, instead of
+                // holding the whole response and an object tree for it in memory.
+                parser.parse(inputStream);
+            } else {
+                // Read the input stream into a String
+                StringBuffer buffer = new StringBuffer();
+                reader = new BufferedReader(new InputStreamReader(inputStream));
+
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+                    // But it does make debugging a *lot* easier if you print out the completed
+                    // buffer for debugging.
+                    buffer.append(line + "\n");
+                }
+
+                if (buffer.length() == 0) {
+                    // Stream was empty.  No point in parsing.
+                    mResult = RESULT_SERVER_DOWN;
+                    return;
+                }
+                parser.parse(buffer.toString());
+            }
+
+            mBodyHash = null == bodyDigest
+                    ? null : ForecastValidatorCache.toHex(bodyDigest.digest());
+            if (haveForecast && parser.getMessageCode() == HttpURLConnection.HTTP_OK
+                    && mValidatorCache.isUnchanged(mRequest, mJulianStartDay, mBodyHash)) {
+                mResult = RESULT_UNCHANGED;
+                return;
+            }
+
+            // The connection is gone by the time the forecast has been stored, so hang on to
+            // its validators until then.
+            mETag = response.getHeaderField(HEADER_ETAG);
+            mLastModified = response.getHeaderField(HEADER_LAST_MODIFIED);
+            mParser = parser;
+            mResult = RESULT_PARSED;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching " + mLocationSetting, e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            mResult = RESULT_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            mResult = RESULT_SERVER_INVALID;
+        } finally {
+            if (response != null) {
+                mDownloadNanos = System.nanoTime() - downloadStart;
+                mBytesRead = response.getBytesRead();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            // Closing rather than disconnecting lets the next fetch reuse the connection.
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /*
+        The 3 hour forecast changes every few hours, so unlike the daily forecast it's always
+        asked for in full.  Its time and bytes count towards the fetch's.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void fetchHourly() {
+        ForecastClient.Response response = null;
+        long connectStart = System.nanoTime();
+        long downloadStart = 0;
+        try {
+            response = mClient.get(mHourlyRequest, null);
+            downloadStart = System.nanoTime();
+            mConnectNanos += downloadStart - connectStart;
+
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "No 3 hour forecast for " + mLocationSetting + ": " +
+                        response.getCode());
+                return;
+            }
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                return;
+            }
+            HourlyJsonParser parser = new HourlyJsonParser(mLocationSetting);
+            parser.parse(inputStream);
+            if (parser.getMessageCode() == HttpURLConnection.HTTP_OK) {
+                mHourlyParser = parser;
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error fetching the 3 hour forecast for " + mLocationSetting, e);
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Error parsing the 3 hour forecast for " + mLocationSetting, e);
+        } finally {
+            if (response != null) {
+                mDownloadNanos += System.nanoTime() - downloadStart;
+                mBytesRead += response.getBytesRead();
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * @return true if the database already holds a forecast for the location from today on.
+     */
+    private boolean hasStoredForecast() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        mLocationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                        WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (null == cursor) return false;
+        boolean haveForecast = cursor.moveToFirst();
+        cursor.close();
+        return haveForecast;
+    }
+
+    /**
+     * Records this response's validators once its forecast has been stored, or forgets the
+     * request's validators if it could not be, so the next fetch is unconditional.
+     */
+    void updateValidators(boolean stored) {
+        if (stored) {
+            mValidatorCache.store(mRequest, mJulianStartDay, mETag, mLastModified, mBodyHash);
+        } else {
+            mValidatorCache.clear(mRequest);
+        }
+    }
+
+    long getConnectNanos() {
+        return mConnectNanos;
+    }
+
+    long getDownloadNanos() {
+        return mDownloadNanos;
+    }
+
+    long getBytesRead() {
+        return mBytesRead;
+    }
+
+    String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    int getResult() {
+        return mResult;
+    }
+
+    /**
+     * @return the parser holding the forecast, only set when the result is RESULT_PARSED.
+     */
+    ForecastJsonParser getParser() {
+        return mParser;
+    }
+
+    /**
+     * @return the parser holding the 3 hour forecast, or null if there isn't one.
+     */
+    HourlyJsonParser getHourlyParser() {
+        return mHourlyParser;
+    }
+}
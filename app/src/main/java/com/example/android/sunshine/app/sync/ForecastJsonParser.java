@@ -0,0 +1,325 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into the weather rows we store.
+ *
+ * There are two ways in.  {@link #parse(String)} is the original org.json path: it needs the
+ * complete response as a String and builds a full JSONObject tree before we pull out the
+ * handful of fields we actually use.  {@link #parse(InputStream)} pulls tokens straight off the
+ * connection with a {@link JsonReader} and adds each day to a {@link ForecastBatch} as soon as
+ * it has been read, so neither the raw response nor the tree is ever held in memory.
+ *
+ * Both paths produce identical rows.  The city is only filled in on the batch's location once
+ * the whole response has been read, since nothing guarantees that "city" arrives before "list".
+ */
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used by the streaming parser to make sure a day had every field the tree parser
+    // would have insisted on.
+    private static final int FOUND_PRESSURE = 1;
+    private static final int FOUND_HUMIDITY = 1 << 1;
+    private static final int FOUND_WINDSPEED = 1 << 2;
+    private static final int FOUND_WIND_DIRECTION = 1 << 3;
+    private static final int FOUND_MAX = 1 << 4;
+    private static final int FOUND_MIN = 1 << 5;
+    private static final int FOUND_DESCRIPTION = 1 << 6;
+    private static final int FOUND_WEATHER_ID = 1 << 7;
+    private static final int FOUND_ALL = (1 << 8) - 1;
+
+    private final int mJulianStartDay;
+    private final Time mDayTime;
+
+    private int mMessageCode = HttpURLConnection.HTTP_OK;
+    private final CityJsonParser mCity = new CityJsonParser();
+    private boolean mHasList;
+    private final ForecastBatch mForecast;
+    private final int mLocation;
+
+    /**
+     * @param locationSetting The location the forecast was requested for.
+     * @param julianStartDay The julian day of the first entry in the forecast.  OWM always
+     *                       sends the current day first, in order, so each following entry is
+     *                       simply one more day.
+     */
+    ForecastJsonParser(String locationSetting, int julianStartDay) {
+        mJulianStartDay = julianStartDay;
+        mDayTime = new Time();
+        mForecast = new ForecastBatch();
+        mLocation = mForecast.addLocation(locationSetting);
+    }
+
+    /**
+     * Parses a complete response held in memory, building the org.json object tree first.
+     */
+    void parse(String forecastJsonStr) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            mMessageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (mMessageCode != HttpURLConnection.HTTP_OK) {
+                return;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+        mHasList = true;
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        mCity.set(cityJson.getString(OWM_CITY_NAME), cityCoord.getDouble(OWM_LATITUDE),
+                cityCoord.getDouble(OWM_LONGITUDE));
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            double pressure = dayForecast.getDouble(OWM_PRESSURE);
+            int humidity = dayForecast.getInt(OWM_HUMIDITY);
+            double windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+            double windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            String description = weatherObject.getString(OWM_DESCRIPTION);
+            int weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            double high = temperatureObject.getDouble(OWM_MAX);
+            double low = temperatureObject.getDouble(OWM_MIN);
+
+            addDay(i, pressure, humidity, windSpeed, windDirection, high, low, description,
+                    weatherId);
+        }
+        mForecast.setCity(mLocation, mCity.getName(), mCity.getLatitude(), mCity.getLongitude());
+    }
+
+    /**
+     * Parses the response token by token as it comes off the stream.  JsonReader only arrived
+     * in Honeycomb, so older devices have to stick with {@link #parse(String)}.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    void parse(InputStream inputStream) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    mMessageCode = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    mCity.read(reader);
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            // Garbage from the server is a server problem, not a network one.  Report it the
+            // same way org.json would have.
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException e) {
+            // JsonReader reports an unexpected token (an object where we wanted a number, and
+            // so on) with unchecked exceptions.
+            throw new JSONException(e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+
+        // The tree parser bails out on an error code before it looks for anything else, so
+        // only insist on the forecast itself when the server says everything is fine.
+        if (mMessageCode == HttpURLConnection.HTTP_OK) {
+            if (!mHasList) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            if (!mCity.isComplete()) {
+                throw new JSONException("Incomplete value for " + OWM_CITY);
+            }
+            mForecast.setCity(mLocation, mCity.getName(), mCity.getLatitude(),
+                    mCity.getLongitude());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readList(JsonReader reader) throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader, mForecast.getDayCount());
+        }
+        reader.endArray();
+        mHasList = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readDay(JsonReader reader, int day) throws IOException, JSONException {
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        double high = 0;
+        double low = 0;
+        String description = null;
+        int weatherId = 0;
+        int found = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                // A null is as good as missing; the check at the end will catch it if we
+                // needed the value.
+                reader.skipValue();
+            } else if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+                found |= FOUND_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // org.json's getInt truncates fractional values, so we do too.
+                humidity = (int) reader.nextDouble();
+                found |= FOUND_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+                found |= FOUND_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+                found |= FOUND_WIND_DIRECTION;
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                            found |= FOUND_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherId = (int) reader.nextDouble();
+                            found |= FOUND_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                        found |= FOUND_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                        found |= FOUND_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (found != FOUND_ALL) {
+            throw new JSONException("Incomplete forecast for day " + day);
+        }
+        addDay(day, pressure, humidity, windSpeed, windDirection, high, low, description,
+                weatherId);
+    }
+
+    private void addDay(int day, double pressure, int humidity, double windSpeed,
+                        double windDirection, double high, double low, String description,
+                        int weatherId) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        long dateTime = mDayTime.setJulianDay(mJulianStartDay + day);
+
+        mForecast.addDay(mLocation, dateTime, weatherId, description, low, high, humidity,
+                pressure, windSpeed, windDirection);
+    }
+
+    int getMessageCode() {
+        return mMessageCode;
+    }
+
+    String getCityName() {
+        return mCity.getName();
+    }
+
+    double getCityLatitude() {
+        return mCity.getLatitude();
+    }
+
+    double getCityLongitude() {
+        return mCity.getLongitude();
+    }
+
+    /**
+     * @return the forecast, one day after another, for a single location.
+     */
+    ForecastBatch getForecast() {
+        return mForecast;
+    }
+}
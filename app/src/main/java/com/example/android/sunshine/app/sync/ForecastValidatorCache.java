@@ -0,0 +1,119 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Remembers the HTTP validators (ETag and Last-Modified) and a hash of the body of the last
+ * forecast we stored for each request, so the next sync can ask OpenWeatherMap for the forecast
+ * conditionally and skip the database work entirely when nothing has changed.
+ *
+ * Validators are only trusted on the julian day they were stored.  Our dates are calculated
+ * from the local day the forecast was fetched on, not from the payload, so an "unchanged"
+ * forecast from yesterday still needs to be stored again today.
+ */
+class ForecastValidatorCache {
+    private static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+    private static final String KEY_BODY_HASH = "body_hash:";
+    private static final String KEY_JULIAN_DAY = "julian_day:";
+
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final SharedPreferences mPrefs;
+
+    ForecastValidatorCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private boolean isCurrent(String request, int julianDay) {
+        return mPrefs.getInt(KEY_JULIAN_DAY + request, -1) == julianDay;
+    }
+
+    /**
+     * Adds If-None-Match and If-Modified-Since headers to the connection if we stored this
+     * request earlier today.  Must be called before the connection is made.
+     */
+    void addConditionalHeaders(HttpURLConnection connection, String request, int julianDay) {
+        if (!isCurrent(request, julianDay)) return;
+
+        String etag = mPrefs.getString(KEY_ETAG + request, null);
+        if (null != etag) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        String lastModified = mPrefs.getString(KEY_LAST_MODIFIED + request, null);
+        if (null != lastModified) {
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * Servers that don't send validators still send the same bytes when nothing has changed.
+     *
+     * @return true if this body hashes the same as the one we stored for the request today.
+     */
+    boolean isUnchanged(String request, int julianDay, String bodyHash) {
+        return null != bodyHash && isCurrent(request, julianDay)
+                && bodyHash.equals(mPrefs.getString(KEY_BODY_HASH + request, null));
+    }
+
+    /**
+     * Records the validators for a response whose forecast has been successfully stored.
+     */
+    void store(String request, int julianDay, String etag, String lastModified,
+               String bodyHash) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        putOrRemove(editor, KEY_ETAG + request, etag);
+        putOrRemove(editor, KEY_LAST_MODIFIED + request, lastModified);
+        putOrRemove(editor, KEY_BODY_HASH + request, bodyHash);
+        editor.putInt(KEY_JULIAN_DAY + request, julianDay);
+        editor.apply();
+    }
+
+    /**
+     * Forgets everything about a request, so the next fetch is unconditional.
+     */
+    void clear(String request) {
+        mPrefs.edit()
+                .remove(KEY_ETAG + request)
+                .remove(KEY_LAST_MODIFIED + request)
+                .remove(KEY_BODY_HASH + request)
+                .remove(KEY_JULIAN_DAY + request)
+                .apply();
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (null != value) {
+            editor.putString(key, value);
+        } else {
+            editor.remove(key);
+        }
+    }
+
+    /**
+     * @return a digest to hash response bodies with, or null if the platform doesn't have one.
+     */
+    static MessageDigest newBodyDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    static String toHex(byte[] digest) {
+        StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Turns an OpenWeatherMap 3 hour forecast response into slots of a {@link ForecastBatch}.
+ *
+ * Like {@link ForecastJsonParser#parse(InputStream)} it reads tokens straight off the
+ * connection.  There's no org.json fallback: the 3 hour forecast is an extra, so devices
+ * older than Honeycomb, without JsonReader, simply go without it.
+ *
+ * A slot needs its time, temperature and weather id.  OpenWeatherMap leaves out wind and
+ * the like now and then, and those are stored as 0 rather than throwing the slot away.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class HourlyJsonParser {
+
+    // The names of the JSON objects that need to be extracted, apart from the ones shared
+    // with the daily forecast in ForecastJsonParser.
+
+    // Each slot's time, in seconds since the epoch.
+    static final String OWM_TIME = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object.
+    static final String OWM_MAIN = "main";
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+
+    // Wind is an object of its own.
+    static final String OWM_WIND = "wind";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_WEATHER_ID = "id";
+
+    private static final int FOUND_TIME = 1;
+    private static final int FOUND_TEMPERATURE = 1 << 1;
+    private static final int FOUND_WEATHER_ID = 1 << 2;
+    private static final int FOUND_REQUIRED = (1 << 3) - 1;
+
+    private int mMessageCode = HttpURLConnection.HTTP_OK;
+    private final CityJsonParser mCity = new CityJsonParser();
+    private boolean mHasList;
+    private final ForecastBatch mForecast;
+    private final int mLocation;
+
+    /**
+     * @param locationSetting The location the forecast was requested for.
+     */
+    HourlyJsonParser(String locationSetting) {
+        // OpenWeatherMap sends five days, 8 slots a day.
+        mForecast = new ForecastBatch(0, 40);
+        mLocation = mForecast.addLocation(locationSetting);
+    }
+
+    void parse(InputStream inputStream) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (ForecastJsonParser.OWM_MESSAGE_CODE.equals(name)) {
+                    mMessageCode = reader.nextInt();
+                } else if (ForecastJsonParser.OWM_CITY.equals(name)) {
+                    mCity.read(reader);
+                } else if (ForecastJsonParser.OWM_LIST.equals(name)) {
+                    readList(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException e) {
+            // JsonReader reports an unexpected token with unchecked exceptions.
+            throw new JSONException(e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+
+        if (mMessageCode == HttpURLConnection.HTTP_OK) {
+            if (!mHasList) {
+                throw new JSONException("No value for " + ForecastJsonParser.OWM_LIST);
+            }
+            if (!mCity.isComplete()) {
+                throw new JSONException("Incomplete value for " + ForecastJsonParser.OWM_CITY);
+            }
+            mForecast.setCity(mLocation, mCity.getName(), mCity.getLatitude(),
+                    mCity.getLongitude());
+        }
+    }
+
+    private void readList(JsonReader reader) throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readSlot(reader, mForecast.getSlotCount());
+        }
+        reader.endArray();
+        mHasList = true;
+    }
+
+    private void readSlot(JsonReader reader, int slot) throws IOException, JSONException {
+        long time = 0;
+        double temperature = 0;
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        int weatherId = 0;
+        int found = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (OWM_TIME.equals(name)) {
+                time = reader.nextLong() * 1000;
+                found |= FOUND_TIME;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.skipValue();
+                    } else if (OWM_TEMPERATURE.equals(mainName)) {
+                        temperature = reader.nextDouble();
+                        found |= FOUND_TEMPERATURE;
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        pressure = reader.nextDouble();
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        humidity = (int) reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.skipValue();
+                    } else if (OWM_WINDSPEED.equals(windName)) {
+                        windSpeed = reader.nextDouble();
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        windDirection = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // The weather array is 1 element long, as in the daily forecast.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            weatherId = (int) reader.nextDouble();
+                            found |= FOUND_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if ((found & FOUND_REQUIRED) != FOUND_REQUIRED) {
+            throw new JSONException("Incomplete forecast for slot " + slot);
+        }
+        mForecast.addSlot(mLocation, time, weatherId, temperature, humidity, pressure,
+                windSpeed, windDirection);
+    }
+
+    int getMessageCode() {
+        return mMessageCode;
+    }
+
+    /**
+     * @return the slots, in the order they arrived, for a single location.
+     */
+    ForecastBatch getForecast() {
+        return mForecast;
+    }
+}
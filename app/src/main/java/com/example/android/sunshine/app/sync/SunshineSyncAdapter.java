@@ -2,14 +2,11 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -22,6 +19,7 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
@@ -29,28 +27,26 @@ import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.ArtCache;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastBatch;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -77,6 +73,35 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
 
+    private static final String[] SAVED_LOCATION_PROJECTION = new String[] {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_SAVED_LOCATION_SETTING = 0;
+    private static final int INDEX_SAVED_COORD_LAT = 1;
+    private static final int INDEX_SAVED_COORD_LONG = 2;
+
+    // The most locations we'll fetch from OpenWeatherMap at the same time.  This is within the
+    // five connections HttpURLConnection keeps alive for a server, so every fetch can get one.
+    private static final int MAX_PARALLEL_FETCHES = 4;
+
+    // History compaction works through old days this many at a time, each lot in its own
+    // short transaction, and rests in between so the loaders never queue behind it for long.
+    // What's left over when the time runs out waits for the next sync.
+    public static final int COMPACT_CHUNK_DAYS = 64;
+    private static final long COMPACT_PAUSE_MILLIS = 50;
+    private static final long COMPACT_BUDGET_MILLIS = 2000;
+
+    // OpenWeatherMap's daily forecast, and its forecast in 3 hour slots.
+    private static final String DAILY_FORECAST_PATH = "forecast/daily";
+    private static final String HOURLY_FORECAST_PATH = "forecast";
+
+    // Shared by every sync, so that connections to OpenWeatherMap outlive a single sync.
+    private static ForecastClient sForecastClient;
+
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -91,292 +116,346 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         super(context, autoInitialize);
     }
 
+    static synchronized ForecastClient getForecastClient() {
+        if (null == sForecastClient) {
+            sForecastClient = new ForecastClient();
+        }
+        return sForecastClient;
+    }
+
+    /**
+     * Replaces the client the sync fetches with, so tests can point it at a server of their
+     * own.  Pass null to go back to OpenWeatherMap.
+     */
+    static synchronized void setForecastClient(ForecastClient client) {
+        sForecastClient = client;
+    }
+
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
+        SyncTelemetry telemetry = new SyncTelemetry();
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
-        Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        Time dayTime = new Time();
+        dayTime.setToNow();
 
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
+        long fetchStart = System.nanoTime();
+        List<ForecastFetch> fetches = buildForecastFetches(julianStartDay);
 
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
+        // Fetching is almost all waiting on the network, so we fetch a few locations at once.
+        // The pool is bounded so that a long list of saved locations doesn't open dozens of
+        // connections (and hold dozens of parsed forecasts) at the same time.
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(fetches.size(), MAX_PARALLEL_FETCHES));
+        try {
+            List<Future<ForecastFetch>> results = executor.invokeAll(fetches);
+            for (Future<ForecastFetch> result : results) {
                 try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+                    // Fetches catch their own errors; this makes sure we see everything they
+                    // wrote before we go on to read it.
+                    result.get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error ", e);
                 }
             }
+        } catch (InterruptedException e) {
+            // The sync was cancelled.  Don't store a partial set of locations.
+            Log.d(LOG_TAG, "Sync cancelled");
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            executor.shutdownNow();
         }
-        return;
+        telemetry.recordPhase(SyncTelemetry.PHASE_FETCH, System.nanoTime() - fetchStart);
+        telemetry.recordFetches(fetches);
+
+        storeWeatherData(fetches, telemetry);
+        compactHistory(julianStartDay, telemetry);
+        telemetry.save(getContext());
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Builds a fetch for every location we know about.  The preferred location always comes
+     * first, so that its result can be reported through the location status.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @param julianStartDay The julian day of the first day in the forecast.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    private List<ForecastFetch> buildForecastFetches(int julianStartDay) {
+        // We no longer need just the location String, but also potentially the latitude and
+        // longitude, in case we are syncing based on a new Place Picker API result.
+        Context context = getContext();
+        // Read the settings once, so the location and its coordinates go together.
+        SettingsSnapshot settings = SettingsSnapshot.get(context);
+        String locationQuery = settings.getPreferredLocation();
+        ForecastClient client = getForecastClient();
+        ForecastValidatorCache validatorCache = new ForecastValidatorCache(context);
+        List<ForecastFetch> fetches = new ArrayList<ForecastFetch>();
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        Uri preferredUri;
+        Uri preferredHourlyUri;
+        if (settings.isLocationLatLonAvailable()) {
+            String latitude = String.valueOf(settings.getLocationLatitude());
+            String longitude = String.valueOf(settings.getLocationLongitude());
+            preferredUri = buildForecastUri(client, DAILY_FORECAST_PATH, null,
+                    latitude, longitude);
+            preferredHourlyUri = buildForecastUri(client, HOURLY_FORECAST_PATH, null,
+                    latitude, longitude);
+        } else {
+            preferredUri = buildForecastUri(client, DAILY_FORECAST_PATH, locationQuery,
+                    null, null);
+            preferredHourlyUri = buildForecastUri(client, HOURLY_FORECAST_PATH, locationQuery,
+                    null, null);
+        }
+        fetches.add(new ForecastFetch(context, client, validatorCache, locationQuery,
+                preferredUri, preferredHourlyUri, julianStartDay));
+
+        // Every other location we have stored a forecast for gets refreshed too, so switching
+        // back to one of them doesn't have to wait on the network.  We already know where they
+        // are, so we ask for them by coordinates rather than trusting the server to make sense
+        // of the location string again.
+        Cursor locationCursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                SAVED_LOCATION_PROJECTION,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " != ?",
+                new String[]{locationQuery},
+                null);
+        if (null != locationCursor) {
+            while (locationCursor.moveToNext()) {
+                String latitude =
+                        Double.toString(locationCursor.getDouble(INDEX_SAVED_COORD_LAT));
+                String longitude =
+                        Double.toString(locationCursor.getDouble(INDEX_SAVED_COORD_LONG));
+                fetches.add(new ForecastFetch(context, client, validatorCache,
+                        locationCursor.getString(INDEX_SAVED_LOCATION_SETTING),
+                        buildForecastUri(client, DAILY_FORECAST_PATH, null, latitude, longitude),
+                        buildForecastUri(client, HOURLY_FORECAST_PATH, null, latitude, longitude),
+                        julianStartDay));
+            }
+            locationCursor.close();
+        }
+        return fetches;
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Construct the URL for the OpenWeatherMap query.  Pass either a location string, or a
+     * latitude and longitude.
+     *
+     * @param forecastPath DAILY_FORECAST_PATH, or HOURLY_FORECAST_PATH for the 3 hour forecast.
+     */
+    private static Uri buildForecastUri(ForecastClient client, String forecastPath,
+                                        String locationQuery, String latitude,
+                                        String longitude) {
+        String format = "json";
+        String units = "metric";
+        // Fourteen days, or five days' worth of 3 hour slots.
+        int count = DAILY_FORECAST_PATH.equals(forecastPath) ? 14 : 40;
+
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String COUNT_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder uriBuilder = Uri.parse(client.getBaseUrl()).buildUpon()
+                .appendEncodedPath(forecastPath);
+        if (null == locationQuery) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, latitude)
+                    .appendQueryParameter(LON_PARAM, longitude);
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
 
-        final String OWM_MESSAGE_CODE = "cod";
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(COUNT_PARAM, Integer.toString(count))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
+    /**
+     * Take the parsed forecasts for every location and store them in the database.  New
+     * locations, all of the weather and the clean up of passed slots go in as one ForecastBatch,
+     * which the provider commits in a single transaction with a single round of change
+     * notifications, and widgets, Muzei and the notification are only told about it once.
+     *
+     * @param fetches The finished fetches, preferred location first.
+     * @param telemetry Where to record how long storing and telling everybody took.
+     */
+    private void storeWeatherData(List<ForecastFetch> fetches, SyncTelemetry telemetry) {
+        // OpenWeatherMap sends at most 16 days, and 40 slots of 3 hours, for each location.
+        ForecastBatch forecast = new ForecastBatch(fetches.size() * 16, fetches.size() * 40);
+        List<ForecastFetch> storedFetches = new ArrayList<ForecastFetch>();
+        int preferredStatus = LOCATION_STATUS_UNKNOWN;
+        boolean reportStatus = false;
+
+        for (int i = 0; i < fetches.size(); i++) {
+            ForecastFetch fetch = fetches.get(i);
+            @LocationStatus int status;
+            switch (fetch.getResult()) {
+                case ForecastFetch.RESULT_NOT_MODIFIED:
+                case ForecastFetch.RESULT_UNCHANGED:
+                    status = LOCATION_STATUS_OK;
+                    break;
+                case ForecastFetch.RESULT_SERVER_DOWN:
+                    status = LOCATION_STATUS_SERVER_DOWN;
+                    break;
+                case ForecastFetch.RESULT_SERVER_INVALID:
+                    status = LOCATION_STATUS_SERVER_INVALID;
+                    break;
+                case ForecastFetch.RESULT_PARSED:
+                    ForecastJsonParser parser = fetch.getParser();
+                    // do we have an error?
+                    switch (parser.getMessageCode()) {
+                        case HttpURLConnection.HTTP_OK:
+                            forecast.addAll(parser.getForecast());
+                            storedFetches.add(fetch);
+                            status = LOCATION_STATUS_OK;
+                            break;
+                        case HttpURLConnection.HTTP_NOT_FOUND:
+                            status = LOCATION_STATUS_INVALID;
+                            fetch.updateValidators(false);
+                            break;
+                        default:
+                            status = LOCATION_STATUS_SERVER_DOWN;
+                            fetch.updateValidators(false);
+                            break;
+                    }
+                    break;
+                default:
+                    // Nothing to do.
+                    continue;
+            }
+            // The 3 hour forecast rides along with whatever happened to the daily one.  It goes
+            // in after the daily forecast, so a new location is stored with the daily
+            // response's city, which addAll keeps because it saw it first.
+            HourlyJsonParser hourlyParser = fetch.getHourlyParser();
+            if (hourlyParser != null
+                    && hourlyParser.getMessageCode() == HttpURLConnection.HTTP_OK) {
+                forecast.addAll(hourlyParser.getForecast());
+            }
+            // The rest of the app only shows the preferred location, so that's the only one
+            // whose status the user gets to hear about.
+            if (i == 0) {
+                preferredStatus = status;
+                reportStatus = true;
+            } else if (status != LOCATION_STATUS_OK) {
+                Log.w(LOG_TAG, "Couldn't refresh " + fetch.getLocationSetting() + ": " + status);
+            }
+        }
 
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+        // add to database
+        int weatherCount = forecast.getDayCount();
+        if ( weatherCount > 0 || forecast.getSlotCount() > 0 ) {
+            // drop the 3 hour slots that have passed.  Past days are kept as history, and
+            // compactHistory looks after those.
+            forecast.setStaleBefore(System.currentTimeMillis());
+
+            long storeStart = System.nanoTime();
+            // The provider lives in our own process, so we can hand it the batch as is.
+            WeatherProvider provider = WeatherProvider.getLocalInstance();
+            try {
+                if (null == provider) {
+                    throw new android.database.SQLException("No weather provider to store in");
+                }
+                provider.storeForecasts(forecast);
+            } catch (android.database.SQLException e) {
+                // The batch is all or nothing, so nothing was stored.
+                Log.e(LOG_TAG, "Error storing forecasts", e);
+                for (ForecastFetch fetch : storedFetches) {
+                    fetch.updateValidators(false);
                 }
+                return;
+            } finally {
+                telemetry.recordPhase(SyncTelemetry.PHASE_STORE, System.nanoTime() - storeStart);
             }
+            telemetry.recordStored(storedFetches.size(), forecast.getRowsWritten(),
+                    forecast.getRowsDeleted());
+        }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        if ( weatherCount > 0 ) {
+            // Get the new forecast's art ready before the widgets and the notification, so they
+            // never have to wait for it.
+            long artStart = System.nanoTime();
+            new ArtPrefetcher(getContext(), ArtCache.getInstance()).prefetch();
+            telemetry.recordPhase(SyncTelemetry.PHASE_ART, System.nanoTime() - artStart);
+
+            long notifyStart = System.nanoTime();
+            updateWidgets();
+            updateMuzei();
+            notifyWeather();
+            telemetry.recordPhase(SyncTelemetry.PHASE_NOTIFY, System.nanoTime() - notifyStart);
+        }
 
-                ContentValues weatherValues = new ContentValues();
+        // Only now that the forecasts are safely stored can we trust their validators.
+        for (ForecastFetch fetch : storedFetches) {
+            fetch.updateValidators(true);
+        }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        Log.d(LOG_TAG, "Sync Complete. " + weatherCount + " Inserted for " +
+                storedFetches.size() + " of " + fetches.size() + " locations");
+        if (reportStatus) {
+            SettingsSnapshot.setLocationStatus(getContext(), preferredStatus);
+        }
+    }
 
-                cVVector.add(weatherValues);
-            }
+    /**
+     * Folds days older than the user's history setting into weekly summaries.  This usually
+     * finds nothing, or a day per location, to do; after the setting is shortened there can be
+     * months of days, which are worked through a chunk at a time over as many syncs as it
+     * takes.
+     */
+    private void compactHistory(int julianStartDay, SyncTelemetry telemetry) {
+        int historyDays = SettingsSnapshot.get(getContext()).getHistoryDays();
+        long before = new Time().setJulianDay(julianStartDay - historyDays);
+
+        WeatherProvider provider = WeatherProvider.getLocalInstance();
+        if (null == provider) {
+            Log.e(LOG_TAG, "No weather provider to compact history in");
+            return;
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+        long start = SystemClock.elapsedRealtime();
+        long compactStart = System.nanoTime();
+        int compacted = 0;
+        try {
+            while (true) {
+                int days = provider.compactHistory(before, COMPACT_CHUNK_DAYS);
+                compacted += days;
+                if (days < COMPACT_CHUNK_DAYS
+                        || SystemClock.elapsedRealtime() - start > COMPACT_BUDGET_MILLIS) {
+                    break;
+                }
+                Thread.sleep(COMPACT_PAUSE_MILLIS);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        } catch (InterruptedException e) {
+            // The sync was cancelled.  Every chunk so far was committed on its own.
+            Thread.currentThread().interrupt();
+        } catch (android.database.SQLException e) {
+            Log.e(LOG_TAG, "Error compacting history", e);
+        } finally {
+            telemetry.recordPhase(SyncTelemetry.PHASE_COMPACT, System.nanoTime() - compactStart);
+            telemetry.recordCompacted(compacted);
         }
     }
 
@@ -401,12 +480,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private void notifyWeather() {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
+        if ( SettingsSnapshot.get(context).isNotificationsEnabled() ) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
 
             String lastNotificationKey = context.getString(R.string.pref_last_notification);
             long lastSync = prefs.getLong(lastNotificationKey, 0);
@@ -429,30 +504,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
                     int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                    SettingsSnapshot settings = SettingsSnapshot.get(context);
+                    int largeIconWidth = ArtCache.getNotificationIconWidth(context);
+                    int largeIconHeight = ArtCache.getNotificationIconHeight(context);
+
+                    // The art was prefetched along with the forecast.  If it couldn't be, we
+                    // don't hold up the notification for it.
+                    Bitmap largeIcon = settings.usingLocalGraphics() ? null
+                            : ArtCache.getInstance().get(settings.getArtPack(), weatherId,
+                                    largeIconWidth, largeIconHeight);
+                    if (null == largeIcon) {
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
                     String title = context.getString(R.string.app_name);
@@ -505,56 +566,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -645,17 +656,4 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
     }
-
-    /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
-     */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncTelemetryEntry;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds up where the time goes in one sync, then saves it as a row of the sync_telemetry
+ * table.  The table keeps the last few dozen syncs, so a slow sync in the field can be pulled
+ * apart after the fact, and the effect of a change can be measured rather than guessed at.
+ *
+ * Only the sync thread touches this.  The fetches keep their own timings, which are added in
+ * once they've all finished.
+ */
+class SyncTelemetry {
+    private static final String LOG_TAG = SyncTelemetry.class.getSimpleName();
+
+    // The phases of a sync, in the order they happen.
+    static final int PHASE_FETCH = 0;
+    static final int PHASE_STORE = 1;
+    static final int PHASE_ART = 2;
+    static final int PHASE_NOTIFY = 3;
+    static final int PHASE_COMPACT = 4;
+    private static final int PHASE_COUNT = 5;
+
+    private final long mStartedMillis = System.currentTimeMillis();
+    private final long mStartNanos = System.nanoTime();
+    private final long[] mPhaseNanos = new long[PHASE_COUNT];
+
+    private int mLocations;
+    private int mLocationsStored;
+    private long mConnectNanos;
+    private long mDownloadNanos;
+    private long mBytes;
+    private int mRowsWritten;
+    private int mRowsDeleted;
+    private int mDaysCompacted;
+
+    void recordPhase(int phase, long nanos) {
+        mPhaseNanos[phase] += nanos;
+    }
+
+    /**
+     * Adds in what every fetch measured.  Call once they've all finished.
+     */
+    void recordFetches(List<ForecastFetch> fetches) {
+        mLocations += fetches.size();
+        for (ForecastFetch fetch : fetches) {
+            mConnectNanos += fetch.getConnectNanos();
+            mDownloadNanos += fetch.getDownloadNanos();
+            mBytes += fetch.getBytesRead();
+        }
+    }
+
+    void recordStored(int locations, int rowsWritten, int rowsDeleted) {
+        mLocationsStored += locations;
+        mRowsWritten += rowsWritten;
+        mRowsDeleted += rowsDeleted;
+    }
+
+    void recordCompacted(int days) {
+        mDaysCompacted += days;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(SyncTelemetryEntry.COLUMN_STARTED, mStartedMillis);
+        values.put(SyncTelemetryEntry.COLUMN_TOTAL_MS, toMillis(System.nanoTime() - mStartNanos));
+        values.put(SyncTelemetryEntry.COLUMN_LOCATIONS, mLocations);
+        values.put(SyncTelemetryEntry.COLUMN_LOCATIONS_STORED, mLocationsStored);
+        values.put(SyncTelemetryEntry.COLUMN_FETCH_MS, toMillis(mPhaseNanos[PHASE_FETCH]));
+        values.put(SyncTelemetryEntry.COLUMN_CONNECT_MS, toMillis(mConnectNanos));
+        values.put(SyncTelemetryEntry.COLUMN_DOWNLOAD_MS, toMillis(mDownloadNanos));
+        values.put(SyncTelemetryEntry.COLUMN_BYTES, mBytes);
+        values.put(SyncTelemetryEntry.COLUMN_STORE_MS, toMillis(mPhaseNanos[PHASE_STORE]));
+        values.put(SyncTelemetryEntry.COLUMN_ROWS_WRITTEN, mRowsWritten);
+        values.put(SyncTelemetryEntry.COLUMN_ROWS_DELETED, mRowsDeleted);
+        values.put(SyncTelemetryEntry.COLUMN_ART_MS, toMillis(mPhaseNanos[PHASE_ART]));
+        values.put(SyncTelemetryEntry.COLUMN_NOTIFY_MS, toMillis(mPhaseNanos[PHASE_NOTIFY]));
+        values.put(SyncTelemetryEntry.COLUMN_COMPACT_MS, toMillis(mPhaseNanos[PHASE_COMPACT]));
+        values.put(SyncTelemetryEntry.COLUMN_DAYS_COMPACTED, mDaysCompacted);
+        return values;
+    }
+
+    /**
+     * Saves this sync's row.  Losing it isn't worth failing the sync over.
+     */
+    void save(Context context) {
+        ContentValues values = toContentValues();
+        Log.d(LOG_TAG, values.toString());
+        try {
+            context.getContentResolver().insert(SyncTelemetryEntry.CONTENT_URI, values);
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error saving sync telemetry", e);
+        }
+    }
+}